@@ -0,0 +1,33 @@
+package edu.uco.cicc.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with allocation per
+ * operation (gc.alloc.rate.norm) next to its time, and writes them as JSON.
+ *
+ * Usage: java -jar target/benchmarks.jar [include-regex] [result-file]
+ * e.g.   java -jar target/benchmarks.jar BlockProcessing baseline/block-processing.json
+ *
+ * Results are only comparable with others from the same machine and JDK; record a new
+ * baseline there before judging a change against it.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+        String resultFile = args.length > 1 ? args[1] : "baseline/jmh-result.json";
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+        new Runner(options).run();
+    }
+}
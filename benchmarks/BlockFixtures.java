@@ -0,0 +1,94 @@
+package edu.uco.cicc.benchmarks;
+
+import edu.uco.cicc.TextractCorpus;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.BoundingBox;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Geometry;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * DetectDocumentText responses shaped like real ones: a PAGE block, then LINE blocks of
+ * eight words each, then the WORD blocks, with geometry and confidence on every block.
+ * Benchmarks with a corpus parameter (-p corpus=dir) use recorded responses instead.
+ */
+final class BlockFixtures {
+
+    private static final String[] VOCABULARY = {
+        "invoice", "total", "amount", "date", "customer", "account", "number", "address",
+        "street", "city", "payment", "due", "balance", "item", "quantity", "price", "tax",
+        "order", "reference", "signature", "page", "summary", "description", "2024",
+    };
+    private static final int WORDS_PER_LINE = 8;
+
+    private BlockFixtures() {
+    }
+
+    /**
+     * The synthetic response with about blockCount blocks, or, when corpus names a directory
+     * recorded by RecordingTextractClient, the recorded response closest to that size.
+     */
+    static DetectDocumentTextResponse response(int blockCount, String corpus) throws IOException {
+        if (corpus == null || corpus.isEmpty()) {
+            return response(blockCount);
+        }
+        DetectDocumentTextResponse closest = null;
+        for (TextractCorpus.Recording recording : TextractCorpus.readDirectory(Paths.get(corpus))) {
+            if (closest == null || Math.abs(recording.response().blocks().size() - blockCount)
+                    < Math.abs(closest.blocks().size() - blockCount)) {
+                closest = recording.response();
+            }
+        }
+        if (closest == null) {
+            throw new IllegalArgumentException("No recordings in " + corpus);
+        }
+        return closest;
+    }
+
+    /** A response with about blockCount blocks. */
+    static DetectDocumentTextResponse response(int blockCount) {
+        Random random = new Random(blockCount);
+        int lineCount = Math.max(1, (blockCount - 1) / (WORDS_PER_LINE + 1));
+        List<Block> lines = new ArrayList<>(lineCount);
+        List<Block> words = new ArrayList<>(lineCount * WORDS_PER_LINE);
+        for (int line = 0; line < lineCount; line++) {
+            StringBuilder lineText = new StringBuilder();
+            float top = (float) line / lineCount;
+            for (int word = 0; word < WORDS_PER_LINE; word++) {
+                String text = VOCABULARY[random.nextInt(VOCABULARY.length)];
+                words.add(block(BlockType.WORD, text, random, word / 10f, top));
+                lineText.append(word > 0 ? " " : "").append(text);
+            }
+            lines.add(block(BlockType.LINE, lineText.toString(), random, 0.05f, top));
+        }
+
+        List<Block> blocks = new ArrayList<>(1 + lines.size() + words.size());
+        blocks.add(Block.builder().blockType(BlockType.PAGE).build());
+        blocks.addAll(lines);
+        blocks.addAll(words);
+        return DetectDocumentTextResponse.builder().blocks(blocks).build();
+    }
+
+    private static Block block(BlockType type, String text, Random random, float left, float top) {
+        return Block.builder()
+                .blockType(type)
+                .text(text)
+                .confidence(80 + 20 * random.nextFloat())
+                .geometry(Geometry.builder()
+                        .boundingBox(BoundingBox.builder()
+                                .left(left)
+                                .top(top)
+                                .width(0.09f)
+                                .height(0.01f)
+                                .build())
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,65 @@
+package edu.uco.cicc.benchmarks;
+
+import edu.uco.cicc.OcrDocument;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a DetectDocumentText response into handler data: the original loop that appends
+ * every LINE and WORD text to one StringBuilder, against building the columnar OcrDocument.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BlockProcessingBenchmark {
+
+    @Param({"100", "2000", "20000"})
+    public int blocks;
+
+    // Directory of recorded responses (-p corpus=...); empty uses synthetic ones
+    @Param({""})
+    public String corpus;
+
+    private DetectDocumentTextResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = BlockFixtures.response(blocks, corpus);
+    }
+
+    @Benchmark
+    public String stringBuilderLoop() {
+        StringBuilder extractedText = new StringBuilder();
+        for (Block block : response.blocks()) {
+            if (block.blockType() == BlockType.LINE || block.blockType() == BlockType.WORD) {
+                extractedText.append(block.text()).append("\n");
+            }
+        }
+        return extractedText.toString();
+    }
+
+    @Benchmark
+    public OcrDocument ocrDocument() {
+        return OcrDocument.fromBlocks(response.blocks());
+    }
+}
@@ -0,0 +1,133 @@
+package edu.uco.cicc.benchmarks;
+
+import edu.uco.cicc.HammingIndex;
+import edu.uco.cicc.PerceptualHash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Near-duplicate lookup among a million stored perceptual hashes: HammingIndex against a
+ * linear scan, for queries a few bits from a stored hash (hits) and queries with nothing
+ * near them (misses).
+ *
+ * "uniform" hashes are random; "clustered" ones are drawn around 1000 centres, like pages
+ * that share a layout, which fills some index buckets far more than others. A maxDistance
+ * of 16 or more also probes the one-bit neighbours of every chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NearDuplicateLookupBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int CENTRES = 1000;
+    // Bits flipped around a centre; pages of a cluster are about twice this apart
+    private static final int CLUSTER_SPREAD = 24;
+
+    @Param({"1000000"})
+    public int entries;
+
+    @Param({"uniform", "clustered"})
+    public String distribution;
+
+    @Param({"6", "12", "24"})
+    public int maxDistance;
+
+    private long[][] stored;
+    private HammingIndex<Integer> index;
+    private long[][] hits;
+    private long[][] misses;
+    private final int[] distance = new int[1];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long[][] centres = new long[CENTRES][];
+        for (int i = 0; i < CENTRES; i++) {
+            centres[i] = randomHash(random);
+        }
+
+        stored = new long[entries][];
+        index = new HammingIndex<>(PerceptualHash.WORDS, entries);
+        for (int i = 0; i < entries; i++) {
+            stored[i] = distribution.equals("uniform") ? randomHash(random)
+                    : flip(centres[random.nextInt(CENTRES)], CLUSTER_SPREAD, random);
+            index.add(stored[i], i);
+        }
+
+        hits = new long[QUERIES][];
+        misses = new long[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            hits[i] = flip(stored[random.nextInt(entries)], maxDistance / 2, random);
+            misses[i] = distribution.equals("uniform") ? randomHash(random)
+                    : flip(centres[random.nextInt(CENTRES)], 2 * CLUSTER_SPREAD, random);
+        }
+    }
+
+    @Benchmark
+    public Integer indexHit() {
+        return index.nearest(hits[next++ & (QUERIES - 1)], maxDistance, distance);
+    }
+
+    @Benchmark
+    public Integer indexMiss() {
+        return index.nearest(misses[next++ & (QUERIES - 1)], maxDistance, distance);
+    }
+
+    @Benchmark
+    public int linearScanHit() {
+        return linearScan(hits[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public int linearScanMiss() {
+        return linearScan(misses[next++ & (QUERIES - 1)]);
+    }
+
+    private int linearScan(long[] query) {
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < stored.length; i++) {
+            int d = PerceptualHash.distance(query, stored[i]);
+            if (d < bestDistance) {
+                best = i;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    private static long[] randomHash(Random random) {
+        long[] hash = new long[PerceptualHash.WORDS];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = random.nextLong();
+        }
+        return hash;
+    }
+
+    private static long[] flip(long[] hash, int bits, Random random) {
+        long[] flipped = hash.clone();
+        for (int i = 0; i < bits; i++) {
+            int bit = random.nextInt(PerceptualHash.BITS);
+            flipped[bit / Long.SIZE] ^= 1L << (bit % Long.SIZE);
+        }
+        return flipped;
+    }
+}
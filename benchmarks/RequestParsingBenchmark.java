@@ -0,0 +1,78 @@
+package edu.uco.cicc.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request body parsing: the handler's objectMapper.readTree, against pulling s3_url out
+ * with the streaming parser without building a tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestParsingBenchmark {
+
+    // A /process-image body, and a /process-batch body with 100 URLs
+    @Param({"single", "batch"})
+    public String body;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private String json;
+
+    @Setup
+    public void setUp() {
+        String url = "https://uco-cicc-media.s3.us-east-1.amazonaws.com/uploads/2024/scan-000123.png";
+        if ("single".equals(body)) {
+            json = "{\"s3_url\": \"" + url + "\", \"mode\": \"lines\"}";
+        } else {
+            StringBuilder urls = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                urls.append(i > 0 ? ", " : "").append('"').append(url.replace("000123", String.format("%06d", i))).append('"');
+            }
+            json = "{\"s3_urls\": [" + urls + "], \"mode\": \"lines\"}";
+        }
+    }
+
+    @Benchmark
+    public JsonNode readTree() throws IOException {
+        return objectMapper.readTree(json);
+    }
+
+    @Benchmark
+    public String streamingMode() throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("mode".equals(field)) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package edu.uco.cicc.benchmarks;
+
+import edu.uco.cicc.S3Location;
+import edu.uco.cicc.S3UrlParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * S3 URL parsing: the S3_URL_PATTERN regex the handler used to match against, and
+ * S3UrlParser, with a new or a reused S3Location.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class S3UrlBenchmark {
+
+    // As it was in TextractHandler before S3UrlParser
+    private static final Pattern S3_URL_PATTERN = Pattern.compile(
+            "https://([^.]+)\\.s3\\.[^/]+\\.amazonaws\\.com/(.*)");
+
+    private final String url = "https://uco-cicc-media.s3.us-east-1.amazonaws.com/uploads/2024/scan-000123.png";
+    private final S3Location target = new S3Location();
+
+    @Benchmark
+    public String regex() {
+        Matcher matcher = S3_URL_PATTERN.matcher(url);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid S3 URL format");
+        }
+        return matcher.group(1) + matcher.group(2);
+    }
+
+    @Benchmark
+    public S3Location parser() {
+        return S3UrlParser.parse(url);
+    }
+
+    @Benchmark
+    public S3Location parserReusingTarget() {
+        S3UrlParser.parse(url, target);
+        return target;
+    }
+}
@@ -0,0 +1,87 @@
+package edu.uco.cicc.benchmarks;
+
+import edu.uco.cicc.JsonResponseWriter;
+import edu.uco.cicc.OcrDocument;
+import edu.uco.cicc.OutputMode;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response body serialization: the original HashMap handed to ObjectMapper, against
+ * streaming an OcrDocument through the reusable JsonResponseWriter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark {
+
+    @Param({"100", "2000", "20000"})
+    public int blocks;
+
+    // Directory of recorded responses (-p corpus=...); empty uses synthetic ones
+    @Param({""})
+    public String corpus;
+
+    @Param({"LINES", "FULL"})
+    public OutputMode mode;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonResponseWriter responseWriter = new JsonResponseWriter();
+    private String extractedText;
+    private OcrDocument document;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Block> response = BlockFixtures.response(blocks, corpus).blocks();
+        StringBuilder text = new StringBuilder();
+        for (Block block : response) {
+            if (block.blockType() == BlockType.LINE || block.blockType() == BlockType.WORD) {
+                text.append(block.text()).append("\n");
+            }
+        }
+        extractedText = text.toString();
+        document = OcrDocument.fromBlocks(response);
+    }
+
+    @Benchmark
+    public String hashMapWithObjectMapper() throws IOException {
+        Map<String, Object> responseBody = new HashMap<>();
+        responseBody.put("text", extractedText);
+        return objectMapper.writeValueAsString(responseBody);
+    }
+
+    @Benchmark
+    public String jsonResponseWriter() throws IOException {
+        JsonGenerator json = responseWriter.begin();
+        json.writeStartObject();
+        document.writeFields(json, mode, 0f);
+        json.writeEndObject();
+        responseWriter.end();
+        return responseWriter.body();
+    }
+}
@@ -0,0 +1,86 @@
+package edu.uco.cicc;
+
+/**
+ * Client-side rate limit for Textract calls that discovers the sustainable rate itself
+ * (AIMD): every successful call raises the rate a little, so it grows by about one call
+ * per second each second, and a throttling error halves it. Callers are spaced evenly at
+ * the current rate instead of all firing at once.
+ *
+ * One instance is shared by every call site in a container (API, batch and queue), so the
+ * limit is per execution environment; environments converge on their share of the quota
+ * independently.
+ */
+public class AdaptiveLimiter {
+
+    private final double minRate;
+    private final double maxRate;
+
+    // Calls per second
+    private double rate;
+    // Earliest System.nanoTime() the next call may start
+    private long nextSlotNanos = System.nanoTime();
+    // Throttles arriving together come from the same overload; cut the rate once for them
+    private long lastDecreaseNanos = nextSlotNanos - 60_000_000_000L;
+
+    private long throttles;
+
+    public AdaptiveLimiter(double initialRate, double minRate, double maxRate) {
+        this.rate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+    }
+
+    public static AdaptiveLimiter fromEnvironment() {
+        return new AdaptiveLimiter(
+                Double.parseDouble(System.getenv().getOrDefault("TEXTRACT_INITIAL_TPS", "5")),
+                Double.parseDouble(System.getenv().getOrDefault("TEXTRACT_MIN_TPS", "0.5")),
+                Double.parseDouble(System.getenv().getOrDefault("TEXTRACT_MAX_TPS", "50")));
+    }
+
+    /**
+     * Waits for the next free slot. Returns false without waiting if that slot starts
+     * after deadlineMillis (a System.currentTimeMillis() value).
+     */
+    public boolean acquire(long deadlineMillis) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextSlotNanos);
+            waitNanos = slot - now;
+            if (System.currentTimeMillis() + waitNanos / 1_000_000 > deadlineMillis) {
+                return false;
+            }
+            nextSlotNanos = slot + (long) (1_000_000_000L / rate);
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+        return true;
+    }
+
+    /** Additive increase: about +1 call per second for every second of successful calls. */
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + 1.0 / rate);
+    }
+
+    /** Multiplicative decrease, at most once per current call interval. */
+    public synchronized void onThrottle() {
+        throttles++;
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < (long) (1_000_000_000L / rate)) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        rate = Math.max(minRate, rate / 2);
+        // Calls already scheduled at the old rate would throttle again
+        nextSlotNanos = Math.max(nextSlotNanos, now + (long) (1_000_000_000L / rate));
+    }
+
+    public synchronized double rate() {
+        return rate;
+    }
+
+    public synchronized long throttles() {
+        return throttles;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Presents the text of LINE or WORD blocks as a character stream, one block per line.
+ * Passed to JsonGenerator.writeString(Reader, int), the text is encoded chunk by chunk
+ * and never materialized as one String. Pages are pulled from the iterator only when
+ * the previous page is exhausted.
+ */
+public class BlockTextReader extends Reader {
+
+    private final Iterator<List<Block>> pages;
+    private final BlockType textType;
+    private final float minConfidence;
+    private Iterator<Block> blocks = Collections.emptyIterator();
+    private String current = "";
+    private int position;
+    private boolean newlinePending;
+
+    public BlockTextReader(Iterator<List<Block>> pages, OutputMode mode, float minConfidence) {
+        this.pages = pages;
+        this.textType = mode == OutputMode.WORDS ? BlockType.WORD : BlockType.LINE;
+        this.minConfidence = minConfidence;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        int written = 0;
+        while (written < len) {
+            if (position < current.length()) {
+                int count = Math.min(len - written, current.length() - position);
+                current.getChars(position, position + count, cbuf, off + written);
+                position += count;
+                written += count;
+            } else if (newlinePending) {
+                cbuf[off + written++] = '\n';
+                newlinePending = false;
+            } else if (!advance()) {
+                break;
+            }
+        }
+        return written == 0 && len > 0 ? -1 : written;
+    }
+
+    // Moves to the next block that carries text; false once every page is consumed
+    private boolean advance() {
+        while (true) {
+            while (blocks.hasNext()) {
+                Block block = blocks.next();
+                if (block.blockType() == textType
+                        && (block.confidence() == null || block.confidence() >= minConfidence)) {
+                    current = block.text();
+                    position = 0;
+                    newlinePending = true;
+                    return true;
+                }
+            }
+            if (!pages.hasNext()) {
+                return false;
+            }
+            blocks = pages.next().iterator();
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; pages are fetched on demand
+    }
+}
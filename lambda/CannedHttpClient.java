@@ -0,0 +1,56 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP client that answers every request with the same 200 JSON response, without a
+ * network. A client built on it still marshals, signs and unmarshals each call, which is
+ * what TextractHandler.beforeCheckpoint needs to warm before a SnapStart snapshot.
+ */
+class CannedHttpClient implements SdkHttpClient {
+
+    private final byte[] body;
+
+    CannedHttpClient(String body) {
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ExecutableHttpRequest prepareRequest(HttpExecuteRequest request) {
+        return new ExecutableHttpRequest() {
+            @Override
+            public HttpExecuteResponse call() {
+                return HttpExecuteResponse.builder()
+                        .response(SdkHttpResponse.builder()
+                                .statusCode(200)
+                                .putHeader("Content-Type", "application/x-amz-json-1.1")
+                                .putHeader("Content-Length", String.valueOf(body.length))
+                                .putHeader("x-amzn-RequestId", "canned")
+                                .build())
+                        .responseBody(AbortableInputStream.create(new ByteArrayInputStream(body)))
+                        .build();
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+    }
+
+    @Override
+    public String clientName() {
+        return "Canned";
+    }
+
+    @Override
+    public void close() {
+    }
+}
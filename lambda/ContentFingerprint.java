@@ -0,0 +1,51 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Identifies a document by its bytes rather than its key, so copies and re-uploads of the
+ * same file under other keys can share one OCR result. A fingerprint is "sha256/<hex>", the
+ * SHA-256 digest of the content. S3 objects only have one when they were uploaded with a
+ * SHA-256 checksum; inline documents are hashed in memory.
+ *
+ * MD5 is never used, although the ETag of a plain single-part upload is one: MD5 collisions
+ * are cheap to construct, so an MD5 match would let anyone who can upload a colliding file
+ * have another document's result served for it.
+ */
+public final class ContentFingerprint {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * The fingerprint of an object from its SHA-256 checksum, which HEAD returns with checksum
+     * mode enabled for objects uploaded with one, or null. Multipart checksums are digests of
+     * the parts, which depend on the part size, so they do not identify the content.
+     */
+    public static String fromHead(HeadObjectResponse head) {
+        String checksum = head.checksumSHA256();
+        if (checksum == null || checksum.indexOf('-') >= 0) {
+            return null;
+        }
+        return "sha256/" + HEX.formatHex(Base64.getDecoder().decode(checksum));
+    }
+
+    public static String of(byte[] content) {
+        return "sha256/" + HEX.formatHex(newDigest().digest(content));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // every JVM has it
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package edu.uco.cicc;
+
+/**
+ * Thrown when a request ran out of time before Textract answered, either the Lambda
+ * timeout or the API Gateway integration limit, whichever comes first. The API returns
+ * it as 504 right away instead of letting the gateway drop the connection.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,948 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Document;
+import software.amazon.awssdk.services.textract.model.GetDocumentTextDetectionRequest;
+import software.amazon.awssdk.services.textract.model.GetDocumentTextDetectionResponse;
+import software.amazon.awssdk.services.textract.model.S3Object;
+import software.amazon.awssdk.services.textract.model.TextractException;
+
+import javax.imageio.ImageIO;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns an S3 object into an OcrDocument, trying the cheapest source first: the
+ * in-container result cache, then results precomputed at upload time, then the result
+ * of a document with the same bytes under another key, then, optionally, that of a
+ * document that looks the same, then Textract.
+ * Shared by the Lambda entry points, which each own one instance.
+ */
+public class DocumentExtractor {
+
+    /**
+     * Where a result came from; DUPLICATE is the result of identical bytes under another key,
+     * SIMILAR that of an image with a nearby perceptual hash.
+     */
+    public enum Source {
+        CACHE, STORE, DUPLICATE, SIMILAR, TEXTRACT
+    }
+
+    /** A document together with the source it was served from. */
+    public static class Extraction {
+        private final OcrDocument document;
+        private final Source source;
+
+        Extraction(OcrDocument document, Source source) {
+            this.document = document;
+            this.source = source;
+        }
+
+        public OcrDocument document() {
+            return document;
+        }
+
+        public Source source() {
+            return source;
+        }
+    }
+
+    // Extracted documents survive across invocations served by the same warm container
+    private static final ResultCache RESULT_CACHE = new ResultCache(
+            Integer.parseInt(System.getenv().getOrDefault("RESULT_CACHE_MAX_ENTRIES", "256")),
+            Long.parseLong(System.getenv().getOrDefault("RESULT_CACHE_MAX_BYTES", "67108864")));
+
+    // Results are shared by documents with identical bytes, whatever their key (see ContentFingerprint)
+    private static final boolean CONTENT_DEDUP =
+            Boolean.parseBoolean(System.getenv().getOrDefault("CONTENT_DEDUP", "true"));
+    private static final AtomicLong CONTENT_HITS = new AtomicLong();
+    private static final AtomicLong CONTENT_MISSES = new AtomicLong();
+    // API results are stored by content on a background thread, after the response has gone;
+    // when it falls behind, stores are dropped, which only costs a later copy its reuse
+    private static final int CONTENT_STORE_QUEUE = 64;
+    private static final long CONTENT_STORE_TIMEOUT_MILLIS = 10_000;
+    private static final ExecutorService CONTENT_STORE_EXECUTOR = new ThreadPoolExecutor(1, 1, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(CONTENT_STORE_QUEUE), runnable -> {
+                Thread thread = new Thread(runnable, "content-store");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    // Images within this many bits of perceptual hash (of 256) of an extracted one reuse its
+    // result; -1, the default, turns this off. The index maps hashes to content fingerprints.
+    private static final int NEAR_DUPLICATE_MAX_DISTANCE =
+            Integer.parseInt(System.getenv().getOrDefault("NEAR_DUPLICATE_MAX_DISTANCE", "-1"));
+    private static final int NEAR_DUPLICATE_MAX_ENTRIES =
+            Integer.parseInt(System.getenv().getOrDefault("NEAR_DUPLICATE_MAX_ENTRIES", "100000"));
+
+    // Checked when the class loads, so a bad setting fails the function's init, not its requests
+    static {
+        if (NEAR_DUPLICATE_MAX_DISTANCE >= 0 && NEAR_DUPLICATE_MAX_ENTRIES <= 0) {
+            throw new IllegalArgumentException("NEAR_DUPLICATE_MAX_ENTRIES must be positive");
+        }
+    }
+
+    private static final HammingIndex<String> NEAR_DUPLICATES = NEAR_DUPLICATE_MAX_DISTANCE < 0 ? null
+            : new HammingIndex<>(PerceptualHash.WORDS, NEAR_DUPLICATE_MAX_ENTRIES);
+
+    static {
+        if (NEAR_DUPLICATES != null && NEAR_DUPLICATE_MAX_DISTANCE > NEAR_DUPLICATES.maxSearchDistance()) {
+            throw new IllegalArgumentException("NEAR_DUPLICATE_MAX_DISTANCE must be at most "
+                    + NEAR_DUPLICATES.maxSearchDistance());
+        }
+    }
+
+    // Paces DetectDocumentText calls of every handler in the container
+    private static final AdaptiveLimiter LIMITER = AdaptiveLimiter.fromEnvironment();
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BACKOFF_BASE_MILLIS = 100;
+    private static final long BACKOFF_MAX_MILLIS = 5000;
+    // DetectDocumentText limit for documents passed as bytes
+    private static final long MAX_DOCUMENT_BYTES = 5L * 1024 * 1024;
+    // Objects without a checksum are read for their perceptual hash and fingerprint up to this
+    // size, Textract's limit for documents read from S3
+    private static final long MAX_KEPT_BYTES = 10L * 1024 * 1024;
+    // Not worth starting a Textract call with less time than this left
+    private static final long MIN_CALL_MILLIS = 500;
+
+    // Rebuilt after a SnapStart restore, so they are not final
+    private TextractClient textractClient;
+    private S3Client s3Client;
+    private final ResultStore resultStore;
+    // Null unless TEXTRACT_REGIONS names two or more regions
+    private final TextractHedger hedger;
+    // Null unless TEXTRACT_POOL_REGIONS is set; takes precedence over the hedger
+    private final RegionalClientPool pool;
+    // Null unless PREPROCESS_LEVEL is set; images then go to Textract reduced, as bytes
+    private final ImagePreprocessor preprocessor;
+    // Null unless TILE_LONG_EDGE is set; larger images are OCR'd in tiles
+    private final ImageTiler tiler;
+    // Null unless MOSAIC_MAX_IMAGE_EDGE is set; small images may then share a call
+    private final MosaicBatcher mosaic;
+
+    public DocumentExtractor() {
+        createClients();
+        this.resultStore = ResultStore.fromEnvironment();
+        this.hedger = TextractHedger.fromEnvironment();
+        this.pool = RegionalClientPool.fromEnvironment();
+        this.preprocessor = ImagePreprocessor.fromEnvironment();
+        this.tiler = ImageTiler.fromEnvironment();
+        this.mosaic = MosaicBatcher.fromEnvironment(this::readCanvas);
+    }
+
+    /**
+     * Uses the given clients instead of building its own, e.g. stand-ins for offline runs.
+     */
+    public DocumentExtractor(TextractClient textractClient, S3Client s3Client, ResultStore resultStore) {
+        this.textractClient = textractClient;
+        this.s3Client = s3Client;
+        this.resultStore = resultStore;
+        this.hedger = null;
+        this.pool = null;
+        this.preprocessor = ImagePreprocessor.fromEnvironment();
+        this.tiler = ImageTiler.fromEnvironment();
+        this.mosaic = MosaicBatcher.fromEnvironment(this::readCanvas);
+    }
+
+    private void createClients() {
+        this.s3Client = S3Client.builder()
+                .region(Region.US_EAST_1) // Update with your region
+                .build();
+        this.textractClient = RecordingTextractClient.wrapIfConfigured(TextractClient.builder()
+                .region(Region.US_EAST_1) // Update with your region
+                // Retries are paced by LIMITER in callTextract; SDK retries would bypass it
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .retryPolicy(RetryPolicy.none())
+                        .build())
+                .build(), s3Client);
+    }
+
+    /**
+     * Replaces both clients, e.g. after a SnapStart restore when credentials captured at
+     * checkpoint time may have expired and pooled connections are dead.
+     */
+    public void recreateClients() {
+        TextractClient oldTextractClient = textractClient;
+        S3Client oldS3Client = s3Client;
+        createClients();
+        oldTextractClient.close();
+        oldS3Client.close();
+        if (hedger != null) {
+            hedger.recreateClients();
+        }
+        if (pool != null) {
+            pool.recreateClients();
+        }
+    }
+
+    public TextractClient textractClient() {
+        return textractClient;
+    }
+
+    public static ResultCache resultCache() {
+        return RESULT_CACHE;
+    }
+
+    public static AdaptiveLimiter limiter() {
+        return LIMITER;
+    }
+
+    /** Content fingerprint lookups that found a result, since the container started. */
+    public static long contentHits() {
+        return CONTENT_HITS.get();
+    }
+
+    public static long contentMisses() {
+        return CONTENT_MISSES.get();
+    }
+
+    /** Perceptual hashes in the near-duplicate index, or -1 when it is off. */
+    public static int nearDuplicateEntries() {
+        return NEAR_DUPLICATES != null ? NEAR_DUPLICATES.size() : -1;
+    }
+
+    public TextractHedger hedger() {
+        return hedger;
+    }
+
+    public RegionalClientPool pool() {
+        return pool;
+    }
+
+    /**
+     * Returns the text blocks of one S3 object, from the cache or the result store when
+     * they hold a result for the object's current ETag or for identical bytes, and from
+     * Textract otherwise.
+     * Textract retries stop at deadlineMillis (a System.currentTimeMillis() value).
+     * Packable documents may share a Textract call with other small images being extracted
+     * at the same time (see MosaicBatcher); for batch and queue work, where waiting out the
+     * batching window costs nothing a caller notices. With nearDuplicates false, the result
+     * of a different document is never served, however alike the two look (see
+     * NEAR_DUPLICATE_MAX_DISTANCE).
+     */
+    public Extraction process(S3Location location, boolean packable, boolean nearDuplicates, long deadlineMillis,
+            InvocationMetrics metrics) {
+        String bucketName = location.bucket();
+        String objectKey = location.key();
+
+        // A HEAD request is far cheaper than a Textract call and tells us whether
+        // the object changed since we last extracted it
+        long lookupStart = System.nanoTime();
+        HeadObjectResponse head = head(bucketName, objectKey, deadlineMillis);
+        String eTag = head.eTag();
+        String cacheKey = ResultCache.key(bucketName, objectKey, eTag);
+
+        OcrDocument document = RESULT_CACHE.get(cacheKey);
+        metrics.record(InvocationMetrics.Phase.CACHE_LOOKUP, lookupStart);
+        metrics.count(document != null ? "CacheHits" : "CacheMisses", 1);
+        if (document != null) {
+            return new Extraction(document, Source.CACHE);
+        }
+
+        // Precomputed when the object was uploaded
+        if (resultStore != null) {
+            long storeStart = System.nanoTime();
+            document = resultStore.get(s3Client, bucketName, objectKey, eTag, deadlineMillis);
+            metrics.record(InvocationMetrics.Phase.STORE_LOOKUP, storeStart);
+            metrics.count(document != null ? "StoreHits" : "StoreMisses", 1);
+            if (document != null) {
+                RESULT_CACHE.put(cacheKey, document);
+                return new Extraction(document, Source.STORE);
+            }
+        }
+
+        // The same bytes under another key: copies, re-uploads. An object without a checksum
+        // is only hashed when it has to be read for a perceptual hash anyway.
+        boolean wantsPerceptualHash = nearDuplicates && NEAR_DUPLICATES != null;
+        String fingerprint = fingerprint(head);
+        byte[] content = null;
+        if (CONTENT_DEDUP && fingerprint == null && wantsPerceptualHash) {
+            content = readForHashing(bucketName, objectKey, head, deadlineMillis, metrics);
+            fingerprint = content != null ? ContentFingerprint.of(content) : null;
+        }
+        document = findByContent(fingerprint, deadlineMillis, metrics);
+        if (document != null) {
+            RESULT_CACHE.put(cacheKey, document);
+            return new Extraction(document, Source.DUPLICATE);
+        }
+
+        // A re-scan or re-compression of a document extracted before. Not cached under this
+        // key, which would serve it to callers that opted out.
+        long[] perceptualHash = null;
+        if (wantsPerceptualHash && fingerprint != null) {
+            perceptualHash = content != null
+                    ? perceptualHash(content, metrics)
+                    : perceptualHash(bucketName, objectKey, deadlineMillis, metrics);
+            document = findNearDuplicate(perceptualHash, deadlineMillis, metrics);
+            if (document != null) {
+                return new Extraction(document, Source.SIMILAR);
+            }
+        }
+
+        document = extract(bucketName, objectKey, packable, deadlineMillis, metrics);
+        RESULT_CACHE.put(cacheKey, document);
+        storeByContentLater(fingerprint, document);
+        if (perceptualHash != null) {
+            NEAR_DUPLICATES.add(perceptualHash, fingerprint);
+        }
+        return new Extraction(document, Source.TEXTRACT);
+    }
+
+    /**
+     * Extracts an S3 object with Textract, or reuses the result of a document with the same
+     * bytes, and saves it to the result store, so that API requests for it need no Textract call.
+     */
+    public OcrDocument precompute(String bucketName, String objectKey, long deadlineMillis, InvocationMetrics metrics) {
+        if (resultStore == null) {
+            throw new IllegalStateException("RESULTS_BUCKET is not configured");
+        }
+        HeadObjectResponse head = head(bucketName, objectKey, deadlineMillis);
+        String fingerprint = fingerprint(head);
+        OcrDocument document = findByContent(fingerprint, deadlineMillis, metrics);
+        if (document == null) {
+            document = extract(bucketName, objectKey, false, deadlineMillis, metrics);
+            storeByContent(fingerprint, document, deadlineMillis);
+        }
+        resultStore.put(s3Client, bucketName, objectKey, head.eTag(), document, deadlineMillis);
+        return document;
+    }
+
+    /**
+     * Like precompute, but skips objects whose current version already has a stored result.
+     * Returns true if Textract was called, false for stored objects and for copies of documents
+     * extracted before. Packable documents may share a call, as in process.
+     */
+    public boolean ensureStored(String bucketName, String objectKey, boolean packable, long deadlineMillis,
+            InvocationMetrics metrics) {
+        if (resultStore == null) {
+            throw new IllegalStateException("RESULTS_BUCKET is not configured");
+        }
+        HeadObjectResponse head = head(bucketName, objectKey, deadlineMillis);
+        if (resultStore.contains(s3Client, bucketName, objectKey, head.eTag(), deadlineMillis)) {
+            metrics.count("StoreHits", 1);
+            return false;
+        }
+        String fingerprint = fingerprint(head);
+        OcrDocument document = findByContent(fingerprint, deadlineMillis, metrics);
+        boolean extracted = document == null;
+        if (extracted) {
+            document = extract(bucketName, objectKey, packable, deadlineMillis, metrics);
+            storeByContent(fingerprint, document, deadlineMillis);
+        }
+        resultStore.put(s3Client, bucketName, objectKey, head.eTag(), document, deadlineMillis);
+        return extracted;
+    }
+
+    /**
+     * Reads every page of a finished text detection job and saves the text to the result
+     * store, where GET /jobs/{id} finds it without paging through Textract, and still finds
+     * it after Textract discards job results (7 days).
+     */
+    public OcrDocument storeJobResult(String jobId, long deadlineMillis, InvocationMetrics metrics) {
+        if (resultStore == null) {
+            throw new IllegalStateException("RESULTS_BUCKET is not configured");
+        }
+        OcrDocument document = new OcrDocument(1024);
+        String nextToken = null;
+        do {
+            long textractStart = System.nanoTime();
+            GetDocumentTextDetectionResponse page = textractClient.getDocumentTextDetection(
+                    GetDocumentTextDetectionRequest.builder()
+                            .jobId(jobId)
+                            .nextToken(nextToken)
+                            .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                            .build());
+            metrics.record(InvocationMetrics.Phase.TEXTRACT, textractStart);
+            metrics.count("BlockCount", page.blocks().size());
+            document.addBlocks(page.blocks());
+            nextToken = page.nextToken();
+        } while (nextToken != null);
+        resultStore.putJob(s3Client, jobId, document, deadlineMillis);
+        return document;
+    }
+
+    /**
+     * The result storeJobResult saved for a job, or null if there is none (yet).
+     */
+    public OcrDocument storedJobResult(String jobId, long deadlineMillis) {
+        return resultStore != null ? resultStore.getJob(s3Client, jobId, deadlineMillis) : null;
+    }
+
+    private HeadObjectResponse head(String bucketName, String objectKey, long deadlineMillis) {
+        return s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                // Also returns the SHA-256 checksum of objects uploaded with one
+                .checksumMode(ChecksumMode.ENABLED)
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build());
+    }
+
+    /**
+     * The content fingerprint of an object, from the SHA-256 checksum HEAD returns for objects
+     * uploaded with one; null for other objects and when deduplication is off. Objects are not
+     * downloaded just to hash them: every miss would read the whole object, which Textract
+     * then reads from S3 again.
+     */
+    private static String fingerprint(HeadObjectResponse head) {
+        return CONTENT_DEDUP ? ContentFingerprint.fromHead(head) : null;
+    }
+
+    // An object of at most MAX_KEPT_BYTES, read for its perceptual hash and its fingerprint; else null
+    private byte[] readForHashing(String bucketName, String objectKey, HeadObjectResponse head, long deadlineMillis,
+            InvocationMetrics metrics) {
+        Long size = head.contentLength();
+        if (size == null || size > MAX_KEPT_BYTES) {
+            return null;
+        }
+        long hashStart = System.nanoTime();
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build())) {
+            metrics.count("FingerprintsHashed", 1);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            metrics.record(InvocationMetrics.Phase.CONTENT_LOOKUP, hashStart);
+        }
+    }
+
+    // The cached or stored result for a fingerprint; counted as ContentHits and ContentMisses
+    private OcrDocument findByContent(String fingerprint, long deadlineMillis, InvocationMetrics metrics) {
+        if (fingerprint == null) {
+            return null;
+        }
+        long lookupStart = System.nanoTime();
+        OcrDocument document = loadByContent(fingerprint, deadlineMillis);
+        metrics.record(InvocationMetrics.Phase.CONTENT_LOOKUP, lookupStart);
+        metrics.count(document != null ? "ContentHits" : "ContentMisses", 1);
+        (document != null ? CONTENT_HITS : CONTENT_MISSES).incrementAndGet();
+        return document;
+    }
+
+    private OcrDocument loadByContent(String fingerprint, long deadlineMillis) {
+        String cacheKey = ResultCache.contentKey(fingerprint);
+        OcrDocument document = RESULT_CACHE.find(cacheKey);
+        if (document == null && resultStore != null) {
+            document = resultStore.getByContent(s3Client, fingerprint, deadlineMillis);
+            if (document != null) {
+                RESULT_CACHE.put(cacheKey, document);
+            }
+        }
+        return document;
+    }
+
+    // Null for PDFs and images ImageIO cannot read
+    private static long[] perceptualHash(byte[] content, InvocationMetrics metrics) {
+        long hashStart = System.nanoTime();
+        try {
+            return PerceptualHash.of(new ByteArrayInputStream(content));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            metrics.record(InvocationMetrics.Phase.NEAR_DUPLICATE_LOOKUP, hashStart);
+        }
+    }
+
+    // Decodes the object subsampled as it streams in; null for PDFs and images ImageIO cannot read
+    private long[] perceptualHash(String bucketName, String objectKey, long deadlineMillis,
+            InvocationMetrics metrics) {
+        long hashStart = System.nanoTime();
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build())) {
+            long[] hash = PerceptualHash.of(in);
+            if (hash == null) {
+                in.abort();
+            }
+            return hash;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            metrics.record(InvocationMetrics.Phase.NEAR_DUPLICATE_LOOKUP, hashStart);
+        }
+    }
+
+    /**
+     * The result of the indexed image nearest to a perceptual hash, if it is within
+     * NEAR_DUPLICATE_MAX_DISTANCE bits and its result can still be found by fingerprint.
+     */
+    private OcrDocument findNearDuplicate(long[] perceptualHash, long deadlineMillis, InvocationMetrics metrics) {
+        if (perceptualHash == null) {
+            return null;
+        }
+        long lookupStart = System.nanoTime();
+        int[] distance = new int[1];
+        String fingerprint = NEAR_DUPLICATES.nearest(perceptualHash, NEAR_DUPLICATE_MAX_DISTANCE, distance);
+        OcrDocument document = fingerprint != null ? loadByContent(fingerprint, deadlineMillis) : null;
+        metrics.record(InvocationMetrics.Phase.NEAR_DUPLICATE_LOOKUP, lookupStart);
+        metrics.count(document != null ? "NearDuplicateHits" : "NearDuplicateMisses", 1);
+        if (document != null) {
+            metrics.set("NearDuplicateDistance", distance[0], "Count");
+        }
+        return document;
+    }
+
+    // Stored as well as cached, so other containers and entry points find it
+    private void storeByContent(String fingerprint, OcrDocument document, long deadlineMillis) {
+        if (fingerprint == null) {
+            return;
+        }
+        RESULT_CACHE.put(ResultCache.contentKey(fingerprint), document);
+        if (resultStore != null) {
+            putByContent(fingerprint, document, deadlineMillis);
+        }
+    }
+
+    /**
+     * Like storeByContent, but the PUTs run on a background thread, so the request that
+     * extracted the document does not wait for them. In Lambda, a PUT still running when
+     * the invocation returns resumes after the next thaw, or is lost; so is the reuse.
+     */
+    private void storeByContentLater(String fingerprint, OcrDocument document) {
+        if (fingerprint == null) {
+            return;
+        }
+        RESULT_CACHE.put(ResultCache.contentKey(fingerprint), document);
+        if (resultStore != null) {
+            CONTENT_STORE_EXECUTOR.execute(() -> putByContent(fingerprint, document,
+                    System.currentTimeMillis() + CONTENT_STORE_TIMEOUT_MILLIS));
+        }
+    }
+
+    private void putByContent(String fingerprint, OcrDocument document, long deadlineMillis) {
+        try {
+            resultStore.putByContent(s3Client, fingerprint, document, deadlineMillis);
+        } catch (SdkException e) {
+            // Only a later copy of the document misses out; this result is good
+        }
+    }
+
+    /**
+     * Calls Textract for an S3 object, bypassing cache and store.
+     */
+    private OcrDocument extract(String bucketName, String objectKey, boolean packable, long deadlineMillis,
+            InvocationMetrics metrics) {
+        if (packable && mosaic != null) {
+            OcrDocument packed = extractPacked(bucketName, objectKey, deadlineMillis, metrics);
+            if (packed != null) {
+                return packed;
+            }
+        }
+        DetectDocumentTextRequest detectRequest = DetectDocumentTextRequest.builder()
+                .document(Document.builder()
+                        .s3Object(S3Object.builder()
+                                .bucket(bucketName)
+                                .name(objectKey)
+                                .build())
+                        .build())
+                .build();
+        if (tiler != null) {
+            OcrDocument tiled = extractTiled(bucketName, objectKey, deadlineMillis, metrics);
+            if (tiled != null) {
+                return tiled;
+            }
+        }
+        if (preprocessor != null) {
+            SdkBytes reduced = preprocessObject(bucketName, objectKey, deadlineMillis, metrics);
+            if (reduced != null) {
+                detectRequest = DetectDocumentTextRequest.builder()
+                        .document(Document.builder().bytes(reduced).build())
+                        .build();
+            }
+        }
+        return detect(detectRequest, deadlineMillis, metrics);
+    }
+
+    /**
+     * Extracts a document sent inline, within Textract's 5 MB limit for bytes (larger ones
+     * are rejected with IllegalArgumentException unless tiling or preprocessing shrinks them).
+     * Inline documents have no key or ETag, so only their content fingerprint is looked up,
+     * and their perceptual hash unless nearDuplicates is false.
+     */
+    public Extraction processBytes(SdkBytes documentBytes, boolean nearDuplicates, long deadlineMillis,
+            InvocationMetrics metrics) {
+        metrics.set("InlineBytes", documentBytes.asByteArrayUnsafe().length, "Bytes");
+        String fingerprint = null;
+        if (CONTENT_DEDUP) {
+            long hashStart = System.nanoTime();
+            fingerprint = ContentFingerprint.of(documentBytes.asByteArrayUnsafe());
+            metrics.record(InvocationMetrics.Phase.CONTENT_LOOKUP, hashStart);
+        }
+        OcrDocument document = findByContent(fingerprint, deadlineMillis, metrics);
+        if (document != null) {
+            return new Extraction(document, Source.DUPLICATE);
+        }
+        long[] perceptualHash = null;
+        if (nearDuplicates && NEAR_DUPLICATES != null && fingerprint != null) {
+            perceptualHash = perceptualHash(documentBytes.asByteArrayUnsafe(), metrics);
+            document = findNearDuplicate(perceptualHash, deadlineMillis, metrics);
+            if (document != null) {
+                return new Extraction(document, Source.SIMILAR);
+            }
+        }
+        document = extractBytes(documentBytes, deadlineMillis, metrics);
+        storeByContentLater(fingerprint, document);
+        if (perceptualHash != null) {
+            NEAR_DUPLICATES.add(perceptualHash, fingerprint);
+        }
+        return new Extraction(document, Source.TEXTRACT);
+    }
+
+    private OcrDocument extractBytes(SdkBytes documentBytes, long deadlineMillis, InvocationMetrics metrics) {
+        int size = documentBytes.asByteArrayUnsafe().length;
+        if (tiler != null) {
+            try {
+                int[] dimensions = ImageTiler.dimensions(documentBytes.asInputStream());
+                if (dimensions != null && tiler.needsTiling(dimensions[0], dimensions[1], size)) {
+                    return tile(documentBytes.asByteArrayUnsafe(), deadlineMillis, metrics);
+                }
+            } catch (IOException e) {
+                // not an image ImageIO reads; sent as it is
+            }
+        }
+        if (preprocessor != null) {
+            SdkBytes reduced = preprocess(documentBytes.asInputStream(), size, metrics);
+            if (reduced != null) {
+                documentBytes = reduced;
+                size = reduced.asByteArrayUnsafe().length;
+            }
+        }
+        if (size <= MAX_DOCUMENT_BYTES) {
+            metrics.count("InlineDocuments", 1);
+            DetectDocumentTextRequest detectRequest = DetectDocumentTextRequest.builder()
+                    .document(Document.builder().bytes(documentBytes).build())
+                    .build();
+            return detect(detectRequest, deadlineMillis, metrics);
+        }
+
+        // Lambda's 6 MB request limit keeps inline documents (base64 or raw) under this anyway
+        throw new IllegalArgumentException("Inline documents must be at most 5 MB; upload larger ones to S3");
+    }
+
+    /**
+     * Extracts a small image as part of a mosaic. Returns null for objects that are not
+     * small images, and for images the mosaic hands back to be extracted on their own.
+     */
+    private OcrDocument extractPacked(String bucketName, String objectKey, long deadlineMillis,
+            InvocationMetrics metrics) {
+        BufferedImage image;
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build())) {
+            if (in.response().contentLength() > MAX_DOCUMENT_BYTES) {
+                in.abort();
+                return null;
+            }
+            byte[] bytes = in.readAllBytes();
+            int[] dimensions = ImageTiler.dimensions(new ByteArrayInputStream(bytes));
+            if (dimensions == null || !mosaic.accepts(dimensions[0], dimensions[1])) {
+                return null;
+            }
+            image = ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+
+        long textractStart = System.nanoTime();
+        List<Block> blocks = mosaic.read(image, deadlineMillis, metrics);
+        metrics.record(InvocationMetrics.Phase.TEXTRACT, textractStart);
+        if (blocks == null) {
+            return null;
+        }
+        long blocksStart = System.nanoTime();
+        OcrDocument document = OcrDocument.fromBlocks(blocks);
+        metrics.record(InvocationMetrics.Phase.BLOCKS, blocksStart);
+        metrics.count("BlockCount", blocks.size());
+        return document;
+    }
+
+    /**
+     * Tiles the object if it is an image too large for one call, judging by its header
+     * and size; returns null for everything else. Images over the tiler's maxImageBytes
+     * are rejected with IllegalArgumentException before they are downloaded.
+     */
+    private OcrDocument extractTiled(String bucketName, String objectKey, long deadlineMillis,
+            InvocationMetrics metrics) {
+        // The first bytes are enough for the dimensions, and the range gives the object size
+        long size;
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .range("bytes=0-" + (ImageTiler.HEADER_BYTES - 1))
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build())) {
+            int[] dimensions = ImageTiler.dimensions(in);
+            size = objectSize(in.response());
+            if (dimensions == null || !tiler.needsTiling(dimensions[0], dimensions[1], size)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        // The whole image is held in memory while it is tiled
+        if (size > tiler.maxImageBytes()) {
+            metrics.count("TilingRejected", 1);
+            throw new IllegalArgumentException("Image is " + size + " bytes; images over "
+                    + tiler.maxImageBytes() + " bytes cannot be tiled");
+        }
+        byte[] image = s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build()).asByteArrayUnsafe();
+        return tile(image, deadlineMillis, metrics);
+    }
+
+    private List<Block> readCanvas(SdkBytes canvas, long deadlineMillis, InvocationMetrics metrics) {
+        return callTextract(DetectDocumentTextRequest.builder()
+                .document(Document.builder().bytes(canvas).build())
+                .build(), deadlineMillis, metrics).blocks();
+    }
+
+    // Each tile goes through callTextract, so tiles share the rate limit and retry policy
+    private OcrDocument tile(byte[] image, long deadlineMillis, InvocationMetrics metrics) {
+        long textractStart = System.nanoTime();
+        OcrDocument document = tiler.extract(image, tile -> callTextract(DetectDocumentTextRequest.builder()
+                        .document(Document.builder().bytes(tile.bytes()).build())
+                        .build(), deadlineMillis, metrics).blocks(),
+                deadlineMillis, metrics);
+        metrics.record(InvocationMetrics.Phase.TEXTRACT, textractStart);
+        metrics.count("BlockCount", document.size());
+        return document;
+    }
+
+    // Content-Range is "bytes 0-262143/<size>" for a range request
+    private static long objectSize(GetObjectResponse response) {
+        String contentRange = response.contentRange();
+        if (contentRange != null && contentRange.lastIndexOf('/') >= 0) {
+            String total = contentRange.substring(contentRange.lastIndexOf('/') + 1);
+            if (!total.equals("*")) {
+                return Long.parseLong(total);
+            }
+        }
+        return response.contentLength() != null ? response.contentLength() : 0;
+    }
+
+    // Reads the object and reduces it; null means Textract should read the original from S3
+    private SdkBytes preprocessObject(String bucketName, String objectKey, long deadlineMillis,
+            InvocationMetrics metrics) {
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                .build())) {
+            SdkBytes reduced = preprocess(in, in.response().contentLength(), metrics);
+            if (reduced == null) {
+                in.abort(); // do not drain the rest of a document that is sent as it is
+            }
+            return reduced;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes and reduces an image as it is read. Returns null for documents that are not
+     * images ImageIO reads, would not get smaller, or would still be too large for bytes.
+     */
+    private SdkBytes preprocess(InputStream in, long size, InvocationMetrics metrics) {
+        long preprocessStart = System.nanoTime();
+        try {
+            byte[] reduced = preprocessor.process(in, size);
+            if (reduced == null || reduced.length > MAX_DOCUMENT_BYTES) {
+                metrics.count("PreprocessSkipped", 1);
+                return null;
+            }
+            metrics.set("OriginalBytes", size, "Bytes");
+            metrics.set("PreprocessedBytes", reduced.length, "Bytes");
+            return SdkBytes.fromByteArrayUnsafe(reduced);
+        } catch (IOException e) {
+            // Corrupt or unsupported image: Textract gets the original and reports on it
+            metrics.count("PreprocessSkipped", 1);
+            return null;
+        } finally {
+            metrics.record(InvocationMetrics.Phase.PREPROCESS, preprocessStart);
+        }
+    }
+
+    private OcrDocument detect(DetectDocumentTextRequest detectRequest, long deadlineMillis,
+            InvocationMetrics metrics) {
+        // Call Textract service to extract text
+        long textractStart = System.nanoTime();
+        DetectDocumentTextResponse result = callTextract(detectRequest, deadlineMillis, metrics);
+        metrics.record(InvocationMetrics.Phase.TEXTRACT, textractStart);
+        // context.getLogger().log("Textract Response: " + result.toString());
+
+        // Process the result: keep LINE and WORD blocks, every output mode is rendered from them
+        long blocksStart = System.nanoTime();
+        OcrDocument document = OcrDocument.fromBlocks(result.blocks());
+        metrics.record(InvocationMetrics.Phase.BLOCKS, blocksStart);
+        metrics.count("BlockCount", result.blocks().size());
+        return document;
+    }
+
+    /**
+     * Calls DetectDocumentText at the rate LIMITER allows, or through the regional pool,
+     * which paces each region itself, when one is configured. Throttling and transient errors
+     * are retried with full-jitter exponential backoff for as long as the deadline permits.
+     * Each attempt is given only the time left before the deadline, so a slow call is
+     * abandoned rather than outliving the caller. Throttling that outlasts the deadline
+     * becomes a TextractThrottledException, anything else a DeadlineExceededException.
+     */
+    private DetectDocumentTextResponse callTextract(DetectDocumentTextRequest request, long deadlineMillis,
+            InvocationMetrics metrics) {
+        RuntimeException lastError = null;
+        boolean throttled = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                long backoff = ThreadLocalRandom.current().nextLong(
+                        Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << attempt) + 1);
+                if (System.currentTimeMillis() + backoff + MIN_CALL_MILLIS >= deadlineMillis) {
+                    break;
+                }
+                metrics.count("TextractRetries", 1);
+                sleep(backoff);
+            }
+
+            long waitStart = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = pool != null || LIMITER.acquire(deadlineMillis - MIN_CALL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for Textract capacity", e);
+            }
+            metrics.record(InvocationMetrics.Phase.LIMITER_WAIT, waitStart);
+            if (!acquired) {
+                throttled = true;
+                break;
+            }
+
+            try {
+                DetectDocumentTextRequest timedRequest = request.toBuilder()
+                        .overrideConfiguration(timeoutsUntil(deadlineMillis))
+                        .build();
+                DetectDocumentTextResponse response;
+                if (pool != null) {
+                    response = pool.detect(timedRequest, s3Client, deadlineMillis - MIN_CALL_MILLIS, metrics);
+                } else {
+                    response = hedger != null
+                            ? hedger.detect(timedRequest, s3Client, metrics)
+                            : textractClient.detectDocumentText(timedRequest);
+                    LIMITER.onSuccess();
+                }
+                return response;
+            } catch (TextractException e) {
+                throttled = e.isThrottlingException();
+                if (throttled) {
+                    if (pool == null) {
+                        LIMITER.onThrottle(); // the pool has already taken the region out of rotation
+                    }
+                    metrics.count("TextractThrottles", 1);
+                } else if (e.statusCode() < 500) {
+                    throw e; // bad document, missing object, access denied: retrying will not help
+                }
+                lastError = e;
+            } catch (SdkClientException e) {
+                // Connection reset, I/O error, or the attempt ran into the deadline
+                throttled = false;
+                lastError = e;
+            }
+        }
+
+        if (throttled) {
+            metrics.count("TextractThrottledRequests", 1);
+            throw new TextractThrottledException("Textract is throttling requests, retry later",
+                    (int) Math.ceil(1 / LIMITER.rate()), lastError);
+        }
+        if (lastError != null && System.currentTimeMillis() + MIN_CALL_MILLIS < deadlineMillis) {
+            throw lastError; // out of attempts, not out of time
+        }
+        metrics.count("DeadlineExceeded", 1);
+        throw new DeadlineExceededException("Textract did not answer in the time left for this request", lastError);
+    }
+
+    /**
+     * Per-request SDK timeouts that end at deadlineMillis. There are no SDK retries, so the
+     * call and its single attempt share the same budget.
+     */
+    static AwsRequestOverrideConfiguration timeoutsUntil(long deadlineMillis) {
+        Duration remaining = Duration.ofMillis(Math.max(1, deadlineMillis - System.currentTimeMillis()));
+        return AwsRequestOverrideConfiguration.builder()
+                .apiCallTimeout(remaining)
+                .apiCallAttemptTimeout(remaining)
+                .build();
+    }
+
+    /**
+     * Reads the S3 document of a request so it can be sent to Textract in another region,
+     * which cannot read the bucket. Returns null for documents over the 5 MB limit for bytes.
+     */
+    static SdkBytes readDocumentBytes(DetectDocumentTextRequest request, S3Client s3Client) {
+        if (request.document().bytes() != null) {
+            return request.document().bytes(); // sent inline
+        }
+        S3Object s3Object = request.document().s3Object();
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+                .bucket(s3Object.bucket())
+                .key(s3Object.name())
+                .overrideConfiguration(request.overrideConfiguration().orElse(null))
+                .build())) {
+            if (in.response().contentLength() > MAX_DOCUMENT_BYTES) {
+                in.abort();
+                return null;
+            }
+            return SdkBytes.fromByteArrayUnsafe(in.readAllBytes());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package edu.uco.cicc;
+
+import java.util.Arrays;
+
+/**
+ * Multi-index hash table for finding the stored bit string nearest to a query within a
+ * small Hamming distance. Each hash is split into 16-bit chunks, and every chunk position
+ * has its own table from chunk value to the hashes that have it. Two hashes at most r bits
+ * apart differ in at most r / chunks bits in at least one chunk (pigeonhole), so a search
+ * only verifies the hashes found under the query's own chunk values, or under those and
+ * their one-bit neighbours when r is at least the number of chunks.
+ *
+ * A BK-tree is the textbook alternative, but on 256-bit hashes unrelated entries all lie
+ * around 128 bits apart, the triangle inequality prunes almost nothing, and a search
+ * visits most of the tree.
+ *
+ * Tables are arrays rather than maps: a head per chunk value, and a next link per entry
+ * and chunk, about 100 bytes per 256-bit entry besides its value, plus 4 MB of heads.
+ * Single entries cannot be removed; once maxEntries are stored the index starts over empty.
+ */
+public class HammingIndex<V> {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int words;
+    private final int chunks;
+    private final int maxEntries;
+    private int size;
+    // Entry i: hash in hashes[i * words, (i + 1) * words), and in next[i * chunks + c] the
+    // following entry with the same value of chunk c (-1 for none)
+    private long[] hashes;
+    private Object[] values;
+    private int[] next;
+    // heads[c][value]: the latest entry whose chunk c has that value
+    private final int[][] heads;
+
+    public HammingIndex(int words, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.words = words;
+        this.chunks = words * Long.SIZE / CHUNK_BITS;
+        this.maxEntries = maxEntries;
+        this.heads = new int[chunks][1 << CHUNK_BITS];
+        clear();
+    }
+
+    /** Largest distance nearest() searches exhaustively. */
+    public int maxSearchDistance() {
+        return 2 * chunks - 1;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        hashes = new long[INITIAL_CAPACITY * words];
+        values = new Object[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY * chunks];
+        for (int[] head : heads) {
+            Arrays.fill(head, -1);
+        }
+    }
+
+    /**
+     * Adds a hash, or replaces the value of an identical one.
+     */
+    public synchronized void add(long[] hash, V value) {
+        // An identical hash has every chunk in common, so the first table is enough
+        for (int entry = heads[0][chunk(hash, 0)]; entry >= 0; entry = next[entry * chunks]) {
+            if (distance(hash, entry) == 0) {
+                values[entry] = value;
+                return;
+            }
+        }
+        if (size == maxEntries) {
+            clear();
+        }
+        if (size == values.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity * words);
+            values = Arrays.copyOf(values, capacity);
+            next = Arrays.copyOf(next, capacity * chunks);
+        }
+        int entry = size++;
+        System.arraycopy(hash, 0, hashes, entry * words, words);
+        values[entry] = value;
+        for (int c = 0; c < chunks; c++) {
+            int key = chunk(hash, c);
+            next[entry * chunks + c] = heads[c][key];
+            heads[c][key] = entry;
+        }
+    }
+
+    /**
+     * The value of the stored hash nearest to the given one, if it is at most maxDistance
+     * bits away; null otherwise. The distance of the match is written to distanceOut[0].
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V nearest(long[] hash, int maxDistance, int[] distanceOut) {
+        if (maxDistance > maxSearchDistance()) {
+            throw new IllegalArgumentException("maxDistance must be at most " + maxSearchDistance());
+        }
+        int best = find(hash, maxDistance);
+        if (best < 0) {
+            return null;
+        }
+        if (distanceOut != null) {
+            distanceOut[0] = distance(hash, best);
+        }
+        return (V) values[best];
+    }
+
+    // The nearest entry within maxDistance, or -1
+    private int find(long[] hash, int maxDistance) {
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        boolean neighbours = maxDistance >= chunks;
+        for (int c = 0; c < chunks && bestDistance > 0; c++) {
+            int key = chunk(hash, c);
+            for (int flip = -1; flip < (neighbours ? CHUNK_BITS : 0); flip++) {
+                int probe = flip < 0 ? key : key ^ (1 << flip);
+                for (int entry = heads[c][probe]; entry >= 0; entry = next[entry * chunks + c]) {
+                    int distance = distance(hash, entry);
+                    if (distance < bestDistance) {
+                        best = entry;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int chunk(long[] hash, int c) {
+        int perWord = Long.SIZE / CHUNK_BITS;
+        return (int) (hash[c / perWord] >>> ((c % perWord) * CHUNK_BITS)) & ((1 << CHUNK_BITS) - 1);
+    }
+
+    private int distance(long[] hash, int entry) {
+        int offset = entry * words;
+        int distance = 0;
+        for (int i = 0; i < words; i++) {
+            distance += Long.bitCount(hash[i] ^ hashes[offset + i]);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,221 @@
+package edu.uco.cicc;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Shrinks images before they are sent to Textract: downscales to a maximum long edge,
+ * optionally converts to grayscale and binarizes, and re-encodes. Phone photos and
+ * 600 dpi scans carry far more pixels than OCR needs, and Textract's bounding boxes are
+ * relative to the page, so results keep the same coordinates.
+ *
+ * Decoding subsamples rows and columns as the image is read, so the full-size raster is
+ * never held in memory; only the compressed input and the reduced image are. Because the
+ * step is a whole number of pixels, the long edge ends up between half of maxLongEdge and
+ * maxLongEdge (e.g. 2016 px for a 4032 px photo and a 3000 px limit).
+ */
+public class ImagePreprocessor {
+
+    public enum Level {
+        NONE, DOWNSCALE, GRAYSCALE, BINARIZE;
+
+        public static Level parse(String value) {
+            return value == null || value.isEmpty() ? NONE : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    // About 300 dpi on a letter-size page, where Textract is as accurate as at full resolution
+    private static final int DEFAULT_MAX_LONG_EDGE = 3000;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private final Level level;
+    private final int maxLongEdge;
+
+    static {
+        // Read from memory rather than temporary files; /tmp is small and slow in Lambda
+        ImageIO.setUseCache(false);
+    }
+
+    public ImagePreprocessor(Level level, int maxLongEdge) {
+        this.level = level;
+        this.maxLongEdge = maxLongEdge;
+    }
+
+    /**
+     * The preprocessor configured by PREPROCESS_LEVEL (none, downscale, grayscale or binarize)
+     * and PREPROCESS_MAX_LONG_EDGE, or null when preprocessing is off.
+     */
+    public static ImagePreprocessor fromEnvironment() {
+        Level level = Level.parse(System.getenv("PREPROCESS_LEVEL"));
+        if (level == Level.NONE) {
+            return null;
+        }
+        return new ImagePreprocessor(level, Integer.parseInt(System.getenv().getOrDefault(
+                "PREPROCESS_MAX_LONG_EDGE", String.valueOf(DEFAULT_MAX_LONG_EDGE))));
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    /**
+     * Decodes, reduces and re-encodes an image of originalBytes bytes. Returns null when
+     * the original should be sent instead: the input is not an image ImageIO can read
+     * (PDFs, CMYK JPEGs), there is nothing to reduce, or the result is not smaller.
+     */
+    public byte[] process(InputStream in, long originalBytes) throws IOException {
+        if (level == Level.NONE) {
+            return null;
+        }
+        BufferedImage decoded;
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                if (level == Level.DOWNSCALE && longEdge <= maxLongEdge) {
+                    return null;
+                }
+                // Keep every nth row and column, with n the smallest that fits maxLongEdge,
+                // so the decoded raster is never larger than the reduced image
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = (longEdge + maxLongEdge - 1) / maxLongEdge;
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage reduced = reduce(decoded);
+        decoded = null; // let the decoded raster go before encoding
+        if (level == Level.BINARIZE) {
+            reduced = binarize(reduced);
+        }
+
+        byte[] encoded = encode(reduced);
+        return encoded.length < originalBytes ? encoded : null;
+    }
+
+    // Redraws into the output type (grayscale from GRAYSCALE on), scaling down anything still over maxLongEdge
+    private BufferedImage reduce(BufferedImage image) {
+        int longEdge = Math.max(image.getWidth(), image.getHeight());
+        double scale = Math.min(1.0, (double) maxLongEdge / longEdge);
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        int type = level == Level.DOWNSCALE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_BYTE_GRAY;
+
+        BufferedImage reduced = new BufferedImage(width, height, type);
+        Graphics2D graphics = reduced.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // Transparent pixels would otherwise turn black
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return reduced;
+    }
+
+    /**
+     * Converts a grayscale image to black and white at the threshold chosen by Otsu's method,
+     * the one that best separates the histogram into two classes (ink and paper).
+     */
+    static BufferedImage binarize(BufferedImage gray) {
+        byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int threshold = otsuThreshold(pixels);
+
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        BufferedImage binary = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                row[x] = (pixels[offset + x] & 0xff) > threshold ? 1 : 0;
+            }
+            binary.getRaster().setSamples(0, y, width, 1, 0, row);
+        }
+        return binary;
+    }
+
+    static int otsuThreshold(byte[] pixels) {
+        long[] histogram = new long[256];
+        for (byte pixel : pixels) {
+            histogram[pixel & 0xff]++;
+        }
+        long total = pixels.length;
+        double sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += (double) i * histogram[i];
+        }
+
+        double backgroundSum = 0;
+        long backgroundCount = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int t = 0; t < 256; t++) {
+            backgroundCount += histogram[t];
+            if (backgroundCount == 0) {
+                continue;
+            }
+            long foregroundCount = total - backgroundCount;
+            if (foregroundCount == 0) {
+                break;
+            }
+            backgroundSum += (double) t * histogram[t];
+            double backgroundMean = backgroundSum / backgroundCount;
+            double foregroundMean = (sum - backgroundSum) / foregroundCount;
+            double variance = (double) backgroundCount * foregroundCount
+                    * (backgroundMean - foregroundMean) * (backgroundMean - foregroundMean);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    // PNG for black and white, where it is both lossless and small; JPEG otherwise
+    private byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        if (level == Level.BINARIZE) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
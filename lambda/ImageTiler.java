@@ -0,0 +1,539 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.BoundingBox;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * OCRs images that are too large for one DetectDocumentText call, or whose text is too
+ * small at full-page scale (engineering drawings, posters), by splitting them into
+ * overlapping tiles. Tiles are cut and OCR'd concurrently; their words are mapped back
+ * to page coordinates, words seen by two tiles are merged with a grid index, and lines
+ * are rebuilt from the merged words.
+ *
+ * Each tile is decoded on its own as a region of the source image, so the full-size raster
+ * is never in memory. What is: the whole compressed image (objects over maxImageBytes are
+ * refused before they are downloaded) and, for each of the TILE_PARALLELISM tiles in
+ * flight, its decoded region, its grayscale copy and its encoded bytes; about 35 MB per
+ * 2500-pixel tile of a color image.
+ */
+public class ImageTiler {
+
+    /** A region of the source image, in pixels, and its encoded image. */
+    public static class Tile {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final SdkBytes bytes;
+
+        Tile(int x, int y, int width, int height, SdkBytes bytes) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.bytes = bytes;
+        }
+
+        public int x() {
+            return x;
+        }
+
+        public int y() {
+            return y;
+        }
+
+        public int width() {
+            return width;
+        }
+
+        public int height() {
+            return height;
+        }
+
+        public SdkBytes bytes() {
+            return bytes;
+        }
+    }
+
+    // Bytes from the start of an object that are read to find the image dimensions
+    public static final int HEADER_BYTES = 256 * 1024;
+    // Textract's limits for synchronous calls: 10 MB from S3, 5 MB as bytes
+    private static final long MAX_S3_DOCUMENT_BYTES = 10L * 1024 * 1024;
+    private static final long MAX_TILE_BYTES = 5L * 1024 * 1024;
+    // Largest compressed image tiled unless TILE_MAX_IMAGE_BYTES says otherwise
+    private static final long DEFAULT_MAX_IMAGE_BYTES = 64L * 1024 * 1024;
+    // Words closer than this to a side shared with another tile may be cut off
+    private static final int EDGE_MARGIN_PIXELS = 2;
+
+    private static final int TILE_PARALLELISM =
+            Integer.parseInt(System.getenv().getOrDefault("TILE_PARALLELISM", "4"));
+    private static final AtomicInteger TILE_THREADS = new AtomicInteger();
+    // Shared by all documents in the container; daemon threads so the JVM can exit
+    private static final ExecutorService TILE_POOL = Executors.newFixedThreadPool(TILE_PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "textract-tile-" + TILE_THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        ImageIO.setUseCache(false);
+    }
+
+    private final int thresholdLongEdge;
+    private final int tileSize;
+    private final int overlap;
+    private final long maxImageBytes;
+
+    /**
+     * Images whose long edge exceeds thresholdLongEdge are cut into tiles of at most
+     * tileSize pixels a side that share overlap pixels with their neighbours. The overlap
+     * should be wider than the widest word, or a word cut by both tiles is lost.
+     */
+    public ImageTiler(int thresholdLongEdge, int tileSize, int overlap) {
+        this(thresholdLongEdge, tileSize, overlap, DEFAULT_MAX_IMAGE_BYTES);
+    }
+
+    /**
+     * Like the three-argument constructor; images over maxImageBytes, compressed, are refused
+     * because the whole image is held in memory while its tiles are cut.
+     */
+    public ImageTiler(int thresholdLongEdge, int tileSize, int overlap, long maxImageBytes) {
+        if (overlap * 2 >= tileSize) {
+            throw new IllegalArgumentException("Tile overlap must be less than half the tile size");
+        }
+        if (maxImageBytes <= 0) {
+            throw new IllegalArgumentException("TILE_MAX_IMAGE_BYTES must be positive");
+        }
+        this.thresholdLongEdge = thresholdLongEdge;
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+        this.maxImageBytes = maxImageBytes;
+    }
+
+    /**
+     * The tiler configured by TILE_LONG_EDGE, TILE_SIZE (2500), TILE_OVERLAP (250) and
+     * TILE_MAX_IMAGE_BYTES (64 MB), or null when TILE_LONG_EDGE is not set.
+     */
+    public static ImageTiler fromEnvironment() {
+        String threshold = System.getenv("TILE_LONG_EDGE");
+        if (threshold == null || threshold.isEmpty()) {
+            return null;
+        }
+        return new ImageTiler(Integer.parseInt(threshold),
+                Integer.parseInt(System.getenv().getOrDefault("TILE_SIZE", "2500")),
+                Integer.parseInt(System.getenv().getOrDefault("TILE_OVERLAP", "250")),
+                Long.parseLong(System.getenv().getOrDefault("TILE_MAX_IMAGE_BYTES",
+                        String.valueOf(DEFAULT_MAX_IMAGE_BYTES))));
+    }
+
+    public long maxImageBytes() {
+        return maxImageBytes;
+    }
+
+    /**
+     * True when an image of this size has to be tiled: too many pixels on its long edge,
+     * or too many bytes for Textract to read it from S3.
+     */
+    public boolean needsTiling(int width, int height, long bytes) {
+        return Math.max(width, height) > thresholdLongEdge || bytes > MAX_S3_DOCUMENT_BYTES;
+    }
+
+    /**
+     * Width and height of the image whose first bytes in holds, or null when ImageIO cannot
+     * read them (PDFs, truncated headers).
+     */
+    public static int[] dimensions(InputStream in) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = reader(stream);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new int[] {reader.getWidth(0), reader.getHeight(0)};
+            } catch (IOException | IndexOutOfBoundsException e) {
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Tiles an encoded image, reads each tile with ocr, which returns Textract blocks relative
+     * to the tile, and returns the stitched document. Gives up at deadlineMillis.
+     */
+    public OcrDocument extract(byte[] image, Function<Tile, List<Block>> ocr, long deadlineMillis,
+            InvocationMetrics metrics) {
+        int[] size;
+        try {
+            size = dimensions(new ByteArrayInputStream(image));
+        } catch (IOException e) {
+            size = null;
+        }
+        if (size == null) {
+            throw new IllegalArgumentException("Not an image that can be tiled");
+        }
+        List<Rectangle> regions = regions(size[0], size[1]);
+        metrics.count("Tiles", regions.size());
+
+        List<Future<List<Block>>> futures = new ArrayList<>(regions.size());
+        for (Rectangle region : regions) {
+            futures.add(TILE_POOL.submit(() -> ocr.apply(cut(image, region))));
+        }
+        List<List<Block>> results = new ArrayList<>(regions.size());
+        try {
+            for (Future<List<Block>> future : futures) {
+                long remaining = deadlineMillis - System.currentTimeMillis();
+                results.add(future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS));
+            }
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Tiles were not read in the time left for this request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Tile OCR failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading tiles", e);
+        } finally {
+            for (Future<List<Block>> future : futures) {
+                future.cancel(true); // no-op for the finished ones
+            }
+        }
+        return stitch(regions, results, size[0], size[1], overlap, metrics);
+    }
+
+    /**
+     * Tile regions covering a width x height image, row by row. Neighbours share overlap
+     * pixels; the last tile of a row or column is moved back to end at the image edge.
+     */
+    List<Rectangle> regions(int width, int height) {
+        List<Rectangle> regions = new ArrayList<>();
+        for (int y : starts(height)) {
+            for (int x : starts(width)) {
+                regions.add(new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return regions;
+    }
+
+    private List<Integer> starts(int length) {
+        List<Integer> starts = new ArrayList<>();
+        int step = tileSize - overlap;
+        for (int start = 0; ; start += step) {
+            if (start + tileSize >= length) {
+                starts.add(Math.max(0, length - tileSize));
+                return starts;
+            }
+            starts.add(start);
+        }
+    }
+
+    // Decodes one region of the image to grayscale and encodes it for Textract
+    private static Tile cut(byte[] image, Rectangle region) throws IOException {
+        BufferedImage decoded;
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            ImageReader reader = reader(stream);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage gray = new BufferedImage(region.width, region.height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = gray.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, region.width, region.height);
+            graphics.drawImage(decoded, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        // PNG keeps thin strokes sharp; JPEG only when a busy tile would not fit as bytes
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+        ImageIO.write(gray, "png", out);
+        if (out.size() > MAX_TILE_BYTES) {
+            out.reset();
+            writeJpeg(gray, out);
+        }
+        return new Tile(region.x, region.y, region.width, region.height,
+                SdkBytes.fromByteArrayUnsafe(out.toByteArray()));
+    }
+
+    private static void writeJpeg(BufferedImage image, ByteArrayOutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.9f);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream stream) {
+        if (stream == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, true, true);
+        return reader;
+    }
+
+    /** A word in page pixels. */
+    private static class Word {
+        final String text;
+        final float confidence;
+        final double left;
+        final double top;
+        final double width;
+        final double height;
+
+        Word(String text, float confidence, double left, double top, double width, double height) {
+            this.text = text;
+            this.confidence = confidence;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+
+        double centerY() {
+            return top + height / 2;
+        }
+
+        double right() {
+            return left + width;
+        }
+    }
+
+    /**
+     * Maps the WORD blocks of every tile to page coordinates, drops words cut by a tile
+     * edge that a neighbour sees whole, merges words read by more than one tile, and
+     * rebuilds lines. Returns LINE entries in reading order, followed by their words.
+     */
+    static OcrDocument stitch(List<Rectangle> regions, List<List<Block>> results, int width, int height,
+            int overlap, InvocationMetrics metrics) {
+        List<Word> words = new ArrayList<>();
+        int cut = 0;
+        for (int i = 0; i < regions.size(); i++) {
+            Rectangle tile = regions.get(i);
+            for (Block block : results.get(i)) {
+                if (block.blockType() != BlockType.WORD || block.geometry() == null
+                        || block.geometry().boundingBox() == null) {
+                    continue;
+                }
+                BoundingBox box = block.geometry().boundingBox();
+                double left = tile.x + box.left() * tile.width;
+                double top = tile.y + box.top() * tile.height;
+                double wordWidth = box.width() * tile.width;
+                double wordHeight = box.height() * tile.height;
+                if (touchesSharedEdge(tile, left, top, wordWidth, wordHeight, width, height)) {
+                    cut++;
+                    continue;
+                }
+                words.add(new Word(block.text(), block.confidence() != null ? block.confidence() : 0f,
+                        left, top, wordWidth, wordHeight));
+            }
+        }
+
+        // Of two readings of the same word, the more confident one is kept
+        words.sort(Comparator.comparingDouble((Word word) -> word.confidence).reversed());
+        WordGrid grid = new WordGrid(Math.max(overlap, 64));
+        List<Word> kept = new ArrayList<>(words.size());
+        for (Word word : words) {
+            if (!grid.overlapsAny(word)) {
+                grid.add(word);
+                kept.add(word);
+            }
+        }
+        metrics.count("TileCutWords", cut);
+        metrics.count("TileDuplicateWords", words.size() - kept.size());
+
+        List<List<Word>> lines = lines(kept);
+        OcrDocument document = new OcrDocument(lines.size() + kept.size());
+        for (List<Word> line : lines) {
+            StringBuilder text = new StringBuilder();
+            double confidence = 0;
+            double left = Double.MAX_VALUE;
+            double top = Double.MAX_VALUE;
+            double right = 0;
+            double bottom = 0;
+            for (Word word : line) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(word.text);
+                confidence += word.confidence;
+                left = Math.min(left, word.left);
+                top = Math.min(top, word.top);
+                right = Math.max(right, word.right());
+                bottom = Math.max(bottom, word.top + word.height);
+            }
+            document.add(OcrDocument.LINE, text.toString(), (float) (confidence / line.size()),
+                    (float) (left / width), (float) (top / height),
+                    (float) ((right - left) / width), (float) ((bottom - top) / height));
+        }
+        for (List<Word> line : lines) {
+            for (Word word : line) {
+                document.add(OcrDocument.WORD, word.text, word.confidence,
+                        (float) (word.left / width), (float) (word.top / height),
+                        (float) (word.width / width), (float) (word.height / height));
+            }
+        }
+        return document;
+    }
+
+    // A side of the tile that is not an image edge is shared with a neighbour
+    private static boolean touchesSharedEdge(Rectangle tile, double left, double top, double wordWidth,
+            double wordHeight, int width, int height) {
+        return (tile.x > 0 && left <= tile.x + EDGE_MARGIN_PIXELS)
+                || (tile.y > 0 && top <= tile.y + EDGE_MARGIN_PIXELS)
+                || (tile.x + tile.width < width && left + wordWidth >= tile.x + tile.width - EDGE_MARGIN_PIXELS)
+                || (tile.y + tile.height < height && top + wordHeight >= tile.y + tile.height - EDGE_MARGIN_PIXELS);
+    }
+
+    /**
+     * Groups words into lines: rows of words whose vertical centers are within half a word
+     * height, split where the horizontal gap is wider than the text is tall. Lines are in
+     * reading order, top to bottom and left to right.
+     */
+    private static List<List<Word>> lines(List<Word> words) {
+        List<Word> byCenter = new ArrayList<>(words);
+        byCenter.sort(Comparator.comparingDouble(Word::centerY));
+
+        List<List<Word>> lines = new ArrayList<>();
+        int rowStart = 0;
+        while (rowStart < byCenter.size()) {
+            Word first = byCenter.get(rowStart);
+            int rowEnd = rowStart + 1;
+            while (rowEnd < byCenter.size()
+                    && byCenter.get(rowEnd).centerY() - first.centerY() < first.height / 2) {
+                rowEnd++;
+            }
+            List<Word> row = new ArrayList<>(byCenter.subList(rowStart, rowEnd));
+            row.sort(Comparator.comparingDouble((Word word) -> word.left));
+
+            List<Word> line = new ArrayList<>();
+            for (Word word : row) {
+                if (!line.isEmpty()) {
+                    Word previous = line.get(line.size() - 1);
+                    if (word.left - previous.right() > Math.max(word.height, previous.height)) {
+                        lines.add(line);
+                        line = new ArrayList<>();
+                    }
+                }
+                line.add(word);
+            }
+            lines.add(line);
+            rowStart = rowEnd;
+        }
+        return lines;
+    }
+
+    /**
+     * Uniform grid over the page: each word is filed under every cell its box touches, so
+     * the words that may overlap a box are found in the few cells around it.
+     */
+    private static class WordGrid {
+        private final double cellSize;
+        private final Map<Long, List<Word>> cells = new HashMap<>();
+
+        WordGrid(double cellSize) {
+            this.cellSize = cellSize;
+        }
+
+        void add(Word word) {
+            forEachCell(word, key -> {
+                cells.computeIfAbsent(key, k -> new ArrayList<>(4)).add(word);
+                return false;
+            });
+        }
+
+        // Same word if at least half of the smaller box lies inside the larger one
+        boolean overlapsAny(Word word) {
+            return forEachCell(word, key -> {
+                List<Word> candidates = cells.get(key);
+                if (candidates != null) {
+                    for (Word other : candidates) {
+                        if (overlapRatio(word, other) >= 0.5) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            });
+        }
+
+        // Visits the cells under a word's box until visit returns true
+        private boolean forEachCell(Word word, Function<Long, Boolean> visit) {
+            long firstColumn = (long) Math.floor(word.left / cellSize);
+            long lastColumn = (long) Math.floor(word.right() / cellSize);
+            long firstRow = (long) Math.floor(word.top / cellSize);
+            long lastRow = (long) Math.floor((word.top + word.height) / cellSize);
+            for (long row = firstRow; row <= lastRow; row++) {
+                for (long column = firstColumn; column <= lastColumn; column++) {
+                    if (visit.apply((row << 32) ^ (column & 0xffffffffL))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static double overlapRatio(Word a, Word b) {
+            double overlapWidth = Math.min(a.right(), b.right()) - Math.max(a.left, b.left);
+            double overlapHeight = Math.min(a.top + a.height, b.top + b.height) - Math.max(a.top, b.top);
+            if (overlapWidth <= 0 || overlapHeight <= 0) {
+                return 0;
+            }
+            double smaller = Math.min(a.width * a.height, b.width * b.height);
+            return smaller > 0 ? overlapWidth * overlapHeight / smaller : 0;
+        }
+    }
+}
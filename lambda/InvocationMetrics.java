@@ -0,0 +1,147 @@
+package edu.uco.cicc;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-invocation timings and counters, emitted as one CloudWatch Embedded Metric Format
+ * (EMF) log line. CloudWatch extracts the metrics from the log line asynchronously, so
+ * there are no PutMetricData calls on the request path. The JSON is written by hand
+ * to keep serialization cheap and free of reflection.
+ */
+public class InvocationMetrics {
+
+    public static final String NAMESPACE = "cicc/Textract";
+
+    /** Timed phases of a request; Textract and block phases are summed over all items of a batch. */
+    public enum Phase {
+        PARSE_BODY("ParseBodyTime"),
+        PARSE_URL("ParseUrlTime"),
+        CACHE_LOOKUP("CacheLookupTime"),
+        STORE_LOOKUP("StoreLookupTime"),
+        CONTENT_LOOKUP("ContentLookupTime"),
+        NEAR_DUPLICATE_LOOKUP("NearDuplicateLookupTime"),
+        PREPROCESS("PreprocessTime"),
+        LIMITER_WAIT("LimiterWaitTime"),
+        TEXTRACT("TextractTime"),
+        BLOCKS("BlockProcessingTime"),
+        SERIALIZE("SerializeTime");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String metricName() {
+            return metricName;
+        }
+    }
+
+    private final String route;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    // Name -> value, and name -> EMF unit
+    private final Map<String, Double> values = new LinkedHashMap<>();
+    private final Map<String, String> units = new LinkedHashMap<>();
+    // Written to the log line for context, but not extracted as metrics
+    private final Map<String, Object> properties = new LinkedHashMap<>();
+
+    public InvocationMetrics(String route) {
+        this.route = route != null ? route : "unknown";
+    }
+
+    /**
+     * Adds the time elapsed since startNanos (a System.nanoTime() value) to a phase.
+     */
+    public void record(Phase phase, long startNanos) {
+        phaseNanos.addAndGet(phase.ordinal(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds delta to a counter metric.
+     */
+    public synchronized void count(String name, long delta) {
+        values.merge(name, (double) delta, Double::sum);
+        units.put(name, "Count");
+    }
+
+    /**
+     * Sets a metric to a value, replacing any earlier value.
+     */
+    public synchronized void set(String name, double value, String unit) {
+        values.put(name, value);
+        units.put(name, unit);
+    }
+
+    public synchronized void property(String name, Object value) {
+        properties.put(name, value);
+    }
+
+    /**
+     * Writes the EMF line. Call once, at the end of the invocation.
+     */
+    public synchronized void emit(PrintStream out) {
+        StringBuilder line = new StringBuilder(512);
+        line.append("{\"_aws\":{\"Timestamp\":").append(System.currentTimeMillis())
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":\"").append(NAMESPACE)
+                .append("\",\"Dimensions\":[[\"Route\"]],\"Metrics\":[");
+        for (Phase phase : Phase.values()) {
+            appendDefinition(line, phase.metricName(), "Milliseconds");
+        }
+        appendDefinition(line, "TotalTime", "Milliseconds");
+        for (Map.Entry<String, String> unit : units.entrySet()) {
+            appendDefinition(line, unit.getKey(), unit.getValue());
+        }
+        line.setLength(line.length() - 1); // trailing comma
+        line.append("]}]},\"Route\":");
+        appendString(line, route);
+
+        for (Phase phase : Phase.values()) {
+            appendValue(line, phase.metricName(), phaseNanos.get(phase.ordinal()) / 1_000_000.0);
+        }
+        appendValue(line, "TotalTime", (System.nanoTime() - startNanos) / 1_000_000.0);
+        for (Map.Entry<String, Double> value : values.entrySet()) {
+            appendValue(line, value.getKey(), value.getValue());
+        }
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            line.append(',');
+            appendString(line, property.getKey());
+            line.append(':');
+            if (property.getValue() instanceof Number || property.getValue() instanceof Boolean) {
+                line.append(property.getValue());
+            } else {
+                appendString(line, String.valueOf(property.getValue()));
+            }
+        }
+        line.append('}');
+        out.println(line);
+    }
+
+    private static void appendDefinition(StringBuilder line, String name, String unit) {
+        line.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"},");
+    }
+
+    private static void appendValue(StringBuilder line, String name, double value) {
+        line.append(",\"").append(name).append("\":").append(value);
+    }
+
+    // Metric names are constants; only free-form values need escaping
+    private static void appendString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
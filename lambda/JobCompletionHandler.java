@@ -0,0 +1,71 @@
+package edu.uco.cicc;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumes the completion notifications Textract publishes for asynchronous jobs (SNS,
+ * delivered raw to SQS): {"JobId": "...", "Status": "SUCCEEDED", ...}. The text of each
+ * succeeded job is saved to the result store, so GET /jobs/{id} is answered with one S3 read
+ * instead of a Textract call per page. Failed jobs need nothing saved; GET /jobs/{id} reports
+ * them from Textract. Messages that could not be handled are reported individually and retried.
+ */
+public class JobCompletionHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    private static final long RESPONSE_RESERVE_MILLIS = 2000;
+
+    private final DocumentExtractor extractor;
+    private final ObjectMapper objectMapper;
+
+    public JobCompletionHandler() {
+        this.extractor = new DocumentExtractor();
+        this.objectMapper = new ObjectMapper();
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        InvocationMetrics metrics = new InvocationMetrics("jobs");
+        long deadline = System.currentTimeMillis() + context.getRemainingTimeInMillis() - RESPONSE_RESERVE_MILLIS;
+
+        // One job at a time: a long document is many pages of Textract calls already
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        for (SQSEvent.SQSMessage message : event.getRecords()) {
+            String messageId = message.getMessageId();
+            if (System.currentTimeMillis() >= deadline) {
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+                continue;
+            }
+            try {
+                JsonNode notification = objectMapper.readTree(message.getBody());
+                String jobId = notification.path("JobId").asText(null);
+                if (jobId == null) {
+                    throw new IllegalArgumentException("Message has no JobId");
+                }
+                if ("SUCCEEDED".equals(notification.path("Status").asText())) {
+                    OcrDocument document = extractor.storeJobResult(jobId, deadline, metrics);
+                    metrics.count("JobsStored", 1);
+                    metrics.set("EntryCount", document.size(), "Count");
+                } else {
+                    metrics.count("JobsFailed", 1);
+                }
+            } catch (Exception e) {
+                context.getLogger().log("Error handling message " + messageId + ": " + e.getMessage());
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+            }
+        }
+
+        metrics.set("BatchSize", event.getRecords().size(), "Count");
+        metrics.set("FailedItems", failures.size(), "Count");
+        metrics.property("RequestId", context.getAwsRequestId());
+        metrics.emit(System.out);
+        return new SQSBatchResponse(failures);
+    }
+}
@@ -0,0 +1,111 @@
+package edu.uco.cicc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes response bodies with Jackson's streaming JsonGenerator into a buffer that is
+ * reused across invocations. Values go straight from the Textract blocks to UTF-8 bytes,
+ * instead of being collected into a Map and serialized into an intermediate String.
+ * Not thread-safe: each handler instance owns one writer.
+ */
+public class JsonResponseWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Buffer sizes above this are not kept between invocations, so one huge
+    // document does not pin its memory for the lifetime of the container
+    private static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+    private Buffer buffer = new Buffer(16 * 1024);
+    private Buffer compressed = new Buffer(4 * 1024);
+    private JsonGenerator generator;
+    private boolean gzipped;
+
+    /**
+     * Discards whatever was written before and returns a generator for a new body.
+     */
+    public JsonGenerator begin() throws IOException {
+        if (buffer.size() > MAX_RETAINED_BYTES) {
+            buffer = new Buffer(16 * 1024);
+        }
+        if (compressed.size() > MAX_RETAINED_BYTES) {
+            compressed = new Buffer(4 * 1024);
+        }
+        buffer.reset();
+        compressed.reset();
+        gzipped = false;
+        generator = JSON_FACTORY.createGenerator(buffer);
+        return generator;
+    }
+
+    /**
+     * Flushes the generator and returns the body as a String.
+     */
+    public String finish() throws IOException {
+        end();
+        return body();
+    }
+
+    /**
+     * Flushes the generator, so that size() is known before choosing how to return the body.
+     */
+    public void end() throws IOException {
+        generator.close();
+    }
+
+    /**
+     * The ended body as a String: the JSON, or its gzip base64 form after gzipBase64().
+     */
+    public String body() {
+        return gzipped ? compressed.toString(StandardCharsets.US_ASCII) : buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gzip-compresses and base64-encodes the ended body, as API Gateway expects for binary
+     * proxy responses; body() and writeBody() return this form from then on. Both happen in
+     * one streaming pass into a second reusable buffer. Returns the gzip size in bytes.
+     */
+    public int gzipBase64() throws IOException {
+        compressed.reset();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(Base64.getEncoder().wrap(compressed), 8192)) {
+            buffer.writeTo(gzip);
+        }
+        gzipped = true;
+        return compressed.size() * 3 / 4;
+    }
+
+    /**
+     * Number of bytes in the body, once ended.
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * Writes the ended body as a JSON string value, e.g. the body of a proxy response. The
+     * UTF-8 bytes are escaped straight from the buffer, without decoding them to a String;
+     * json must write to an OutputStream.
+     */
+    public void writeBody(JsonGenerator json) throws IOException {
+        Buffer body = gzipped ? compressed : buffer;
+        json.writeUTF8String(body.array(), 0, body.size());
+    }
+
+    // Lends out its array so the body can be written without a copy
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.BoundingBox;
+import software.amazon.awssdk.services.textract.model.Geometry;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packs small images (receipts, ID cards) that are extracted at about the same time into
+ * one composite image, so that one DetectDocumentText call, and one page charge, serves
+ * them all. Images submitted within a short window are shelf-packed onto canvases with
+ * white gutters between them; blocks of the result are assigned back to the image whose
+ * area contains them and mapped to that image's coordinates.
+ *
+ * An image comes back as null, for the caller to extract on its own, when a block crosses
+ * its edge (Textract joined text across the gutter) or its words are read with less
+ * confidence than a single call would be trusted with.
+ */
+public class MosaicBatcher {
+
+    /** Reads an encoded image with Textract. */
+    public interface Reader {
+        List<Block> read(SdkBytes image, long deadlineMillis, InvocationMetrics metrics);
+    }
+
+    // Textract's limit for bytes; a canvas that encodes larger is not sent
+    private static final long MAX_CANVAS_BYTES = 5L * 1024 * 1024;
+    // White space between images, wide enough that Textract does not read across it
+    private static final int GUTTER = 64;
+    // Blocks may stick out of their image by this much, e.g. from box rounding
+    private static final int EDGE_SLACK_PIXELS = 2;
+    // Flush early once the images could fill most of a canvas
+    private static final double FULL_FRACTION = 0.6;
+
+    /** Route of the metrics line each canvas emits for its own Textract call. */
+    public static final String CANVAS_ROUTE = "mosaic-canvas";
+
+    // Closes windows and only hands their canvases on, so a slow Textract call never holds up a window
+    private static final ScheduledExecutorService WINDOW_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "textract-mosaic-window");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Draws, encodes and reads canvases
+    private static final AtomicInteger CANVAS_THREADS = new AtomicInteger();
+    private static final ExecutorService CANVAS_EXECUTOR = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "textract-mosaic-" + CANVAS_THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** An image waiting for a canvas. */
+    private static class Entry {
+        final BufferedImage image;
+        final long deadlineMillis;
+        final InvocationMetrics metrics;
+        final CompletableFuture<List<Block>> result = new CompletableFuture<>();
+        Rectangle placement;
+
+        Entry(BufferedImage image, long deadlineMillis, InvocationMetrics metrics) {
+            this.image = image;
+            this.deadlineMillis = deadlineMillis;
+            this.metrics = metrics;
+        }
+    }
+
+    private final Reader reader;
+    private final int maxImageEdge;
+    private final int canvasEdge;
+    private final long windowMillis;
+    private final float minConfidence;
+
+    // Images collected since the window opened; guarded by this
+    private List<Entry> pending = new ArrayList<>();
+    private long pendingArea;
+
+    public MosaicBatcher(Reader reader, int maxImageEdge, int canvasEdge, long windowMillis, float minConfidence) {
+        this.reader = reader;
+        this.maxImageEdge = maxImageEdge;
+        this.canvasEdge = canvasEdge;
+        this.windowMillis = windowMillis;
+        this.minConfidence = minConfidence;
+    }
+
+    /**
+     * The batcher configured by MOSAIC_MAX_IMAGE_EDGE, MOSAIC_CANVAS_EDGE (4000),
+     * MOSAIC_WINDOW_MILLIS (100) and MOSAIC_MIN_CONFIDENCE (85), or null when
+     * MOSAIC_MAX_IMAGE_EDGE is not set.
+     */
+    public static MosaicBatcher fromEnvironment(Reader reader) {
+        String maxImageEdge = System.getenv("MOSAIC_MAX_IMAGE_EDGE");
+        if (maxImageEdge == null || maxImageEdge.isEmpty()) {
+            return null;
+        }
+        return new MosaicBatcher(reader, Integer.parseInt(maxImageEdge),
+                Integer.parseInt(System.getenv().getOrDefault("MOSAIC_CANVAS_EDGE", "4000")),
+                Long.parseLong(System.getenv().getOrDefault("MOSAIC_WINDOW_MILLIS", "100")),
+                Float.parseFloat(System.getenv().getOrDefault("MOSAIC_MIN_CONFIDENCE", "85")));
+    }
+
+    /**
+     * True for images small enough to share a canvas.
+     */
+    public boolean accepts(int width, int height) {
+        return Math.max(width, height) <= maxImageEdge && Math.max(width, height) <= canvasEdge - 2 * GUTTER;
+    }
+
+    /**
+     * Reads an image as part of a canvas and returns its blocks, relative to the image,
+     * or null when it should be extracted on its own.
+     */
+    public List<Block> read(BufferedImage image, long deadlineMillis, InvocationMetrics metrics) {
+        Entry entry = new Entry(image, deadlineMillis, metrics);
+        List<Entry> full = null;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                List<Entry> window = pending;
+                WINDOW_TIMER.schedule(() -> flushIfPending(window), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            pending.add(entry);
+            pendingArea += (long) (image.getWidth() + GUTTER) * (image.getHeight() + GUTTER);
+            if (pendingArea >= FULL_FRACTION * canvasEdge * canvasEdge) {
+                full = takePending();
+            }
+        }
+        if (full != null) {
+            flush(full);
+        }
+
+        try {
+            long remaining = deadlineMillis - System.currentTimeMillis();
+            return entry.result.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Mosaic OCR failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("The mosaic was not read in the time left for this request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the mosaic", e);
+        }
+    }
+
+    private synchronized List<Entry> takePending() {
+        List<Entry> taken = pending;
+        pending = new ArrayList<>();
+        pendingArea = 0;
+        return taken;
+    }
+
+    // The window closed; the entries may already have gone out with a full canvas
+    private void flushIfPending(List<Entry> window) {
+        List<Entry> entries;
+        synchronized (this) {
+            if (pending != window) {
+                return;
+            }
+            entries = takePending();
+        }
+        flush(entries);
+    }
+
+    private void flush(List<Entry> entries) {
+        for (List<Entry> canvas : pack(entries)) {
+            CANVAS_EXECUTOR.execute(() -> readCanvas(canvas));
+        }
+    }
+
+    /**
+     * Shelf packing: images sorted by height, tallest first, are placed left to right on
+     * shelves as tall as their first image; a canvas is full when the next shelf does not
+     * fit. Sets each entry's placement and returns the entries of each canvas.
+     */
+    List<List<Entry>> pack(List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingInt((Entry entry) -> entry.image.getHeight()).reversed());
+
+        List<List<Entry>> canvases = new ArrayList<>();
+        List<Entry> canvas = new ArrayList<>();
+        int shelfTop = GUTTER;
+        int shelfHeight = 0;
+        int x = GUTTER;
+        for (Entry entry : sorted) {
+            int width = entry.image.getWidth();
+            int height = entry.image.getHeight();
+            if (x + width + GUTTER > canvasEdge) {
+                // next shelf
+                shelfTop += shelfHeight + GUTTER;
+                shelfHeight = 0;
+                x = GUTTER;
+            }
+            if (shelfTop + height + GUTTER > canvasEdge) {
+                // next canvas
+                canvases.add(canvas);
+                canvas = new ArrayList<>();
+                shelfTop = GUTTER;
+                shelfHeight = 0;
+                x = GUTTER;
+            }
+            entry.placement = new Rectangle(x, shelfTop, width, height);
+            canvas.add(entry);
+            x += width + GUTTER;
+            shelfHeight = Math.max(shelfHeight, height);
+        }
+        if (!canvas.isEmpty()) {
+            canvases.add(canvas);
+        }
+        return canvases;
+    }
+
+    private void readCanvas(List<Entry> entries) {
+        try {
+            // A lone image gains nothing from a canvas
+            if (entries.size() == 1) {
+                entries.get(0).result.complete(null);
+                return;
+            }
+            int width = 0;
+            int height = 0;
+            long deadlineMillis = Long.MAX_VALUE;
+            for (Entry entry : entries) {
+                width = Math.max(width, entry.placement.x + entry.placement.width + GUTTER);
+                height = Math.max(height, entry.placement.y + entry.placement.height + GUTTER);
+                deadlineMillis = Math.min(deadlineMillis, entry.deadlineMillis);
+            }
+            SdkBytes canvas = encode(draw(entries, width, height));
+            if (canvas == null) {
+                entries.forEach(entry -> entry.result.complete(null));
+                return;
+            }
+
+            // The call serves every image on the canvas, so its Textract time, retries and
+            // calls go on a line of their own rather than on one of the invocations
+            InvocationMetrics canvasMetrics = new InvocationMetrics(CANVAS_ROUTE);
+            canvasMetrics.count("MosaicCanvases", 1);
+            canvasMetrics.count("MosaicImages", entries.size());
+            List<List<Block>> assigned;
+            long textractStart = System.nanoTime();
+            try {
+                List<Block> blocks = reader.read(canvas, deadlineMillis, canvasMetrics);
+                canvasMetrics.record(InvocationMetrics.Phase.TEXTRACT, textractStart);
+                assigned = assign(blocks, entries, width, height);
+            } finally {
+                canvasMetrics.emit(System.out);
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                entries.get(i).metrics.count("MosaicImages", 1);
+                List<Block> blocks = assigned.get(i);
+                if (blocks == null || meanWordConfidence(blocks) < minConfidence) {
+                    entries.get(i).metrics.count("MosaicFallbacks", 1);
+                    entries.get(i).result.complete(null);
+                } else {
+                    entries.get(i).result.complete(blocks);
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            entries.forEach(entry -> entry.result.completeExceptionally(e));
+        }
+    }
+
+    private static BufferedImage draw(List<Entry> entries, int width, int height) {
+        BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            for (Entry entry : entries) {
+                // Transparent areas are drawn onto white
+                graphics.fillRect(entry.placement.x, entry.placement.y, entry.placement.width, entry.placement.height);
+                graphics.drawImage(entry.image, entry.placement.x, entry.placement.y, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return canvas;
+    }
+
+    // PNG, or JPEG for a busy canvas; null if neither fits in a request
+    private static SdkBytes encode(BufferedImage canvas) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+        ImageIO.write(canvas, "png", out);
+        if (out.size() > MAX_CANVAS_BYTES) {
+            out.reset();
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.9f);
+                writer.setOutput(stream);
+                writer.write(null, new IIOImage(canvas, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        }
+        return out.size() <= MAX_CANVAS_BYTES ? SdkBytes.fromByteArrayUnsafe(out.toByteArray()) : null;
+    }
+
+    /**
+     * Splits the LINE and WORD blocks of a canvas by the image that contains them, with
+     * bounding boxes relative to that image. An image gets null when any block crosses
+     * its edge.
+     */
+    static List<List<Block>> assign(List<Block> blocks, List<Entry> entries, int width, int height) {
+        List<List<Block>> assigned = new ArrayList<>(entries.size());
+        boolean[] crossed = new boolean[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            assigned.add(new ArrayList<>());
+        }
+
+        for (Block block : blocks) {
+            if ((block.blockType() != BlockType.LINE && block.blockType() != BlockType.WORD)
+                    || block.geometry() == null || block.geometry().boundingBox() == null) {
+                continue;
+            }
+            BoundingBox box = block.geometry().boundingBox();
+            double left = box.left() * width;
+            double top = box.top() * height;
+            double right = left + box.width() * width;
+            double bottom = top + box.height() * height;
+
+            for (int i = 0; i < entries.size(); i++) {
+                Rectangle placement = entries.get(i).placement;
+                boolean intersects = right > placement.x && left < placement.x + placement.width
+                        && bottom > placement.y && top < placement.y + placement.height;
+                if (!intersects) {
+                    continue;
+                }
+                boolean contained = left >= placement.x - EDGE_SLACK_PIXELS
+                        && top >= placement.y - EDGE_SLACK_PIXELS
+                        && right <= placement.x + placement.width + EDGE_SLACK_PIXELS
+                        && bottom <= placement.y + placement.height + EDGE_SLACK_PIXELS;
+                if (!contained) {
+                    crossed[i] = true;
+                    continue;
+                }
+                assigned.get(i).add(block.toBuilder()
+                        .geometry(Geometry.builder()
+                                .boundingBox(BoundingBox.builder()
+                                        .left(clamp((left - placement.x) / placement.width))
+                                        .top(clamp((top - placement.y) / placement.height))
+                                        .width(clamp((right - left) / placement.width))
+                                        .height(clamp((bottom - top) / placement.height))
+                                        .build())
+                                .build())
+                        .build());
+            }
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (crossed[i]) {
+                assigned.set(i, null);
+            }
+        }
+        return assigned;
+    }
+
+    private static float clamp(double value) {
+        return (float) Math.max(0, Math.min(1, value));
+    }
+
+    // An image without words has nothing to distrust
+    private static double meanWordConfidence(List<Block> blocks) {
+        double sum = 0;
+        int words = 0;
+        for (Block block : blocks) {
+            if (block.blockType() == BlockType.WORD) {
+                sum += block.confidence() != null ? block.confidence() : 0;
+                words++;
+            }
+        }
+        return words > 0 ? sum / words : 100;
+    }
+}
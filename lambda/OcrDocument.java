@@ -0,0 +1,300 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.BoundingBox;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The LINE and WORD blocks of one document, kept in parallel arrays.
+ * This is what the handler caches: it holds everything any output mode needs, without
+ * the IDs, relationships and polygons of the SDK Block objects, and each mode is rendered
+ * from it when the response is written.
+ */
+public class OcrDocument {
+
+    public static final byte LINE = 0;
+    public static final byte WORD = 1;
+
+    private int size;
+    private byte[] types;
+    private String[] texts;
+    private float[] confidences;
+    private float[] lefts;
+    private float[] tops;
+    private float[] widths;
+    private float[] heights;
+    private long textChars;
+
+    public OcrDocument(int capacity) {
+        int initial = Math.max(capacity, 8);
+        types = new byte[initial];
+        texts = new String[initial];
+        confidences = new float[initial];
+        lefts = new float[initial];
+        tops = new float[initial];
+        widths = new float[initial];
+        heights = new float[initial];
+    }
+
+    public static OcrDocument fromBlocks(List<Block> blocks) {
+        OcrDocument document = new OcrDocument(blocks.size());
+        document.addBlocks(blocks);
+        return document;
+    }
+
+    /**
+     * Adds the LINE and WORD blocks of one more page, e.g. of a multi-page job result.
+     */
+    public void addBlocks(List<Block> blocks) {
+        for (Block block : blocks) {
+            byte type;
+            if (block.blockType() == BlockType.LINE) {
+                type = LINE;
+            } else if (block.blockType() == BlockType.WORD) {
+                type = WORD;
+            } else {
+                continue;
+            }
+            float confidence = block.confidence() != null ? block.confidence() : 0f;
+            BoundingBox box = block.geometry() != null ? block.geometry().boundingBox() : null;
+            if (box != null) {
+                add(type, block.text(), confidence, box.left(), box.top(), box.width(), box.height());
+            } else {
+                add(type, block.text(), confidence, 0f, 0f, 0f, 0f);
+            }
+        }
+    }
+
+    public void add(byte type, String text, float confidence, float left, float top, float width, float height) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            confidences = Arrays.copyOf(confidences, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            tops = Arrays.copyOf(tops, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+        }
+        types[size] = type;
+        texts[size] = text;
+        confidences[size] = confidence;
+        lefts[size] = left;
+        tops[size] = top;
+        widths[size] = width;
+        heights[size] = height;
+        textChars += text.length();
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte type(int i) {
+        return types[i];
+    }
+
+    public String text(int i) {
+        return texts[i];
+    }
+
+    public float confidence(int i) {
+        return confidences[i];
+    }
+
+    public float left(int i) {
+        return lefts[i];
+    }
+
+    public float top(int i) {
+        return tops[i];
+    }
+
+    public float width(int i) {
+        return widths[i];
+    }
+
+    public float height(int i) {
+        return heights[i];
+    }
+
+    /**
+     * Approximate heap footprint, used to bound the result cache.
+     */
+    public long estimatedBytes() {
+        // Per entry: 21 bytes of columns, plus a String header and its UTF-16 chars
+        return 64L + types.length * 21L + size * 40L + textChars * 2;
+    }
+
+    /**
+     * Writes the fields for the given mode into the current JSON object: "text" and,
+     * in FULL mode, a columnar "blocks" section. Entries below minConfidence are skipped.
+     */
+    public void writeFields(JsonGenerator json, OutputMode mode, float minConfidence) throws IOException {
+        byte textType = mode == OutputMode.WORDS ? WORD : LINE;
+        json.writeFieldName("text");
+        json.writeString(new TextReader(textType, minConfidence), -1);
+
+        if (mode != OutputMode.FULL) {
+            return;
+        }
+        // Columns rather than one object per block: field names are written once
+        json.writeObjectFieldStart("blocks");
+        json.writeArrayFieldStart("type");
+        for (int i = 0; i < size; i++) {
+            if (confidences[i] >= minConfidence) {
+                json.writeString(types[i] == LINE ? "LINE" : "WORD");
+            }
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("text");
+        for (int i = 0; i < size; i++) {
+            if (confidences[i] >= minConfidence) {
+                json.writeString(texts[i]);
+            }
+        }
+        json.writeEndArray();
+        writeColumn(json, "confidence", confidences, minConfidence);
+        writeColumn(json, "left", lefts, minConfidence);
+        writeColumn(json, "top", tops, minConfidence);
+        writeColumn(json, "width", widths, minConfidence);
+        writeColumn(json, "height", heights, minConfidence);
+        json.writeEndObject();
+    }
+
+    /**
+     * Writes every entry as a JSON object, in the format readFrom expects.
+     */
+    public void writeTo(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("size", size);
+        json.writeArrayFieldStart("type");
+        for (int i = 0; i < size; i++) {
+            json.writeNumber(types[i]);
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("text");
+        for (int i = 0; i < size; i++) {
+            json.writeString(texts[i]);
+        }
+        json.writeEndArray();
+        writeColumn(json, "confidence", confidences, Float.NEGATIVE_INFINITY);
+        writeColumn(json, "left", lefts, Float.NEGATIVE_INFINITY);
+        writeColumn(json, "top", tops, Float.NEGATIVE_INFINITY);
+        writeColumn(json, "width", widths, Float.NEGATIVE_INFINITY);
+        writeColumn(json, "height", heights, Float.NEGATIVE_INFINITY);
+        json.writeEndObject();
+    }
+
+    /**
+     * Reads a document written by writeTo. The parser must be positioned on the START_OBJECT token.
+     */
+    public static OcrDocument readFrom(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT
+                || !"size".equals(parser.nextFieldName())
+                || parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+            throw new IOException("Expected a stored OCR document");
+        }
+        OcrDocument document = new OcrDocument(parser.getIntValue());
+        document.size = parser.getIntValue();
+        for (int i = 0; i < document.size; i++) {
+            document.texts[i] = "";
+        }
+
+        String column;
+        while ((column = parser.nextFieldName()) != null) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array for " + column);
+            }
+            for (int i = 0; parser.nextToken() != JsonToken.END_ARRAY; i++) {
+                if (i >= document.size) {
+                    throw new IOException("Column " + column + " is longer than the document");
+                }
+                switch (column) {
+                    case "type": document.types[i] = (byte) parser.getIntValue(); break;
+                    case "text":
+                        document.texts[i] = parser.getText();
+                        document.textChars += document.texts[i].length();
+                        break;
+                    case "confidence": document.confidences[i] = parser.getFloatValue(); break;
+                    case "left": document.lefts[i] = parser.getFloatValue(); break;
+                    case "top": document.tops[i] = parser.getFloatValue(); break;
+                    case "width": document.widths[i] = parser.getFloatValue(); break;
+                    case "height": document.heights[i] = parser.getFloatValue(); break;
+                    default: parser.skipChildren(); break;
+                }
+            }
+        }
+        return document;
+    }
+
+    private void writeColumn(JsonGenerator json, String name, float[] values, float minConfidence) throws IOException {
+        json.writeArrayFieldStart(name);
+        for (int i = 0; i < size; i++) {
+            if (confidences[i] >= minConfidence) {
+                json.writeNumber(values[i]);
+            }
+        }
+        json.writeEndArray();
+    }
+
+    // Streams the selected entries' text, one per line, without joining it into a String
+    private class TextReader extends Reader {
+        private final byte textType;
+        private final float minConfidence;
+        private int index = -1;
+        private int position;
+        private boolean newlinePending;
+
+        TextReader(byte textType, float minConfidence) {
+            this.textType = textType;
+            this.minConfidence = minConfidence;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int written = 0;
+            while (written < len) {
+                String current = index >= 0 && index < size ? texts[index] : "";
+                if (position < current.length()) {
+                    int count = Math.min(len - written, current.length() - position);
+                    current.getChars(position, position + count, cbuf, off + written);
+                    position += count;
+                    written += count;
+                } else if (newlinePending) {
+                    cbuf[off + written++] = '\n';
+                    newlinePending = false;
+                } else if (!advance()) {
+                    break;
+                }
+            }
+            return written == 0 && len > 0 ? -1 : written;
+        }
+
+        private boolean advance() {
+            while (++index < size) {
+                if (types[index] == textType && confidences[index] >= minConfidence) {
+                    position = 0;
+                    newlinePending = true;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package edu.uco.cicc;
+
+/**
+ * What a response contains, chosen per request with the "mode" field.
+ * LINE blocks already contain the text of their WORD children, so returning
+ * both (as the handler used to) repeats every word.
+ */
+public enum OutputMode {
+    /** Text of LINE blocks only (default). */
+    LINES,
+    /** Text of WORD blocks only. */
+    WORDS,
+    /** Line text plus a columnar section with type, text, confidence and bounding box of every block. */
+    FULL;
+
+    public static OutputMode parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return LINES;
+        }
+        try {
+            return OutputMode.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid mode: " + value + " (expected lines, words or full)");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package edu.uco.cicc;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Difference hash (dHash) of an image: the image is averaged down to a grid of 17x16
+ * gray cells, and each bit says whether a cell is brighter than its right neighbour.
+ * Re-compressions and re-scans at another resolution change pixels but hardly the
+ * brightness gradients of the grid, so they hash a few bits from the original.
+ *
+ * 256 bits rather than the usual 64: a text page at 9x8 cells is mostly margins and gray
+ * bands. Even so, pages that share a layout and differ only in their text can be as few
+ * as 10 bits apart, and a page shifted or rotated by a few pixels further than that, so
+ * the distance up to which results are reused must stay small.
+ */
+public final class PerceptualHash {
+
+    /** Longs per hash. */
+    public static final int WORDS = 4;
+    public static final int BITS = WORDS * Long.SIZE;
+
+    private static final int COLUMNS = 17;
+    private static final int ROWS = BITS / (COLUMNS - 1);
+    // Decoded with subsampling to about this long edge; the grid is averaged from it
+    private static final int DECODE_LONG_EDGE = 1024;
+    // Cells closer in brightness count as equal; white margins would otherwise flip with every re-encode
+    private static final double MIN_DIFFERENCE = 2;
+
+    static {
+        ImageIO.setUseCache(false);
+    }
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Hashes an encoded image as it is read. Returns null for documents ImageIO cannot
+     * read (PDFs, CMYK JPEGs).
+     */
+    public static long[] of(InputStream in) throws IOException {
+        BufferedImage image;
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, longEdge / DECODE_LONG_EDGE);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        return of(image);
+    }
+
+    public static long[] of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // Mean luminance of each cell, with every pixel counted in exactly one cell
+        double[] sums = new double[COLUMNS * ROWS];
+        int[] counts = new int[COLUMNS * ROWS];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            int cellRow = y * ROWS / height;
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int cell = cellRow * COLUMNS + x * COLUMNS / width;
+                sums[cell] += 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+                counts[cell]++;
+            }
+        }
+
+        long[] hash = new long[WORDS];
+        int bit = 0;
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLUMNS - 1; c++, bit++) {
+                int left = r * COLUMNS + c;
+                // Cells of images narrower than the grid are empty; they count as equal
+                double leftMean = counts[left] > 0 ? sums[left] / counts[left] : 0;
+                double rightMean = counts[left + 1] > 0 ? sums[left + 1] / counts[left + 1] : leftMean;
+                if (leftMean > rightMean + MIN_DIFFERENCE) {
+                    hash[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+                }
+            }
+        }
+        return hash;
+    }
+
+    /** Number of differing bits. */
+    public static int distance(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < WORDS; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,107 @@
+package edu.uco.cicc;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk ingestion from SQS. Each message names one document, either as {"s3_url": "..."}
+ * or as the bare URL. Documents of a batch are extracted concurrently and their results
+ * saved to the result store. Failed messages are reported individually
+ * (ReportBatchItemFailures), so only they return to the queue to be retried.
+ */
+public class QueueIngestionHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    // Concurrent Textract calls per invocation; with the function's reserved concurrency
+    // this bounds the Textract request rate of the whole ingestion path
+    private static final int QUEUE_PARALLELISM =
+            Integer.parseInt(System.getenv().getOrDefault("QUEUE_PARALLELISM", "5"));
+    private static final long RESPONSE_RESERVE_MILLIS = 2000;
+    private static final AtomicInteger QUEUE_THREADS = new AtomicInteger();
+    private static final ExecutorService QUEUE_EXECUTOR = Executors.newFixedThreadPool(QUEUE_PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "textract-queue-" + QUEUE_THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DocumentExtractor extractor;
+    private final ObjectMapper objectMapper;
+
+    public QueueIngestionHandler() {
+        this.extractor = new DocumentExtractor();
+        this.objectMapper = new ObjectMapper();
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        InvocationMetrics metrics = new InvocationMetrics("queue");
+        List<SQSEvent.SQSMessage> messages = event.getRecords();
+
+        // Whatever has not finished shortly before the timeout is retried from the queue
+        long deadline = System.currentTimeMillis() + context.getRemainingTimeInMillis() - RESPONSE_RESERVE_MILLIS;
+
+        List<Future<Boolean>> futures = new ArrayList<>(messages.size());
+        for (SQSEvent.SQSMessage message : messages) {
+            futures.add(QUEUE_EXECUTOR.submit(() -> {
+                S3Location location = S3UrlParser.parse(documentUrl(message.getBody()));
+                // Messages of a batch may share Textract calls (MOSAIC_MAX_IMAGE_EDGE)
+                return extractor.ensureStored(location.bucket(), location.key(), true, deadline, metrics);
+            }));
+        }
+
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            String messageId = messages.get(i).getMessageId();
+            try {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                metrics.count(futures.get(i).get(wait, TimeUnit.MILLISECONDS) ? "Extracted" : "AlreadyStored", 1);
+            } catch (ExecutionException e) {
+                context.getLogger().log("Error processing message " + messageId + ": " + e.getCause().getMessage());
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
+            }
+        }
+
+        metrics.set("BatchSize", messages.size(), "Count");
+        metrics.set("FailedItems", failures.size(), "Count");
+        if (extractor.pool() != null) {
+            metrics.set("PoolAvailableTps", extractor.pool().availableTps(), "Count/Second");
+        } else {
+            metrics.set("TextractRateLimit", DocumentExtractor.limiter().rate(), "Count/Second");
+        }
+        metrics.property("RequestId", context.getAwsRequestId());
+        metrics.emit(System.out);
+        return new SQSBatchResponse(failures);
+    }
+
+    private String documentUrl(String body) throws Exception {
+        String trimmed = body.trim();
+        if (!trimmed.startsWith("{")) {
+            return trimmed;
+        }
+        JsonNode message = objectMapper.readTree(trimmed);
+        if (!message.hasNonNull("s3_url")) {
+            throw new IllegalArgumentException("Message has no s3_url");
+        }
+        return message.get("s3_url").asText();
+    }
+}
@@ -0,0 +1,123 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes DetectDocumentText calls through to Textract and saves a sanitized copy of
+ * each response, with its latency, to a corpus for ReplayTextractClient. The corpus is
+ * an S3 prefix (s3://bucket/prefix/) when running in Lambda, or a local directory.
+ * File names are random, so nothing about the source document is recorded.
+ *
+ * Responses are sanitized and saved on a background thread, so recording adds nothing to
+ * the request's latency; when that thread falls behind, samples are dropped. In Lambda a
+ * recording still pending when the invocation returns is finished after the next thaw, or
+ * lost if the environment is shut down first, which a sample can afford.
+ *
+ * Only calls through DocumentExtractor's own client are recorded. The regional pool
+ * (TEXTRACT_POOL_REGIONS) and the hedger (TEXTRACT_REGIONS) use clients of their own, so
+ * record with both turned off.
+ */
+public class RecordingTextractClient implements TextractClient {
+
+    // Recordings waiting to be saved; more are dropped rather than queued without bound
+    private static final int QUEUE_CAPACITY = 64;
+    private static final Duration PUT_TIMEOUT = Duration.ofSeconds(10);
+    private static final ExecutorService RECORDER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "textract-recorder");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private final TextractClient delegate;
+    private final S3Client s3Client;
+    private final S3Location s3Corpus;
+    private final Path directoryCorpus;
+    private final double sampleRate;
+
+    public RecordingTextractClient(TextractClient delegate, S3Client s3Client, String corpus, double sampleRate) {
+        this.delegate = delegate;
+        this.s3Client = s3Client;
+        this.sampleRate = sampleRate;
+        if (corpus.startsWith("s3://")) {
+            this.s3Corpus = S3UrlParser.parse(corpus);
+            this.directoryCorpus = null;
+        } else {
+            this.s3Corpus = null;
+            this.directoryCorpus = Paths.get(corpus);
+        }
+    }
+
+    /**
+     * Wraps client when RECORD_CORPUS is set (with RECORD_SAMPLE_RATE, default 1), and
+     * returns it unchanged otherwise.
+     */
+    public static TextractClient wrapIfConfigured(TextractClient client, S3Client s3Client) {
+        String corpus = System.getenv("RECORD_CORPUS");
+        if (corpus == null || corpus.isEmpty()) {
+            return client;
+        }
+        return new RecordingTextractClient(client, s3Client, corpus,
+                Double.parseDouble(System.getenv().getOrDefault("RECORD_SAMPLE_RATE", "1")));
+    }
+
+    @Override
+    public DetectDocumentTextResponse detectDocumentText(DetectDocumentTextRequest request) {
+        long start = System.nanoTime();
+        DetectDocumentTextResponse response = delegate.detectDocumentText(request);
+        long latencyMillis = (System.nanoTime() - start) / 1_000_000;
+        if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            RECORDER.execute(() -> record(response, latencyMillis));
+        }
+        return response;
+    }
+
+    private void record(DetectDocumentTextResponse response, long latencyMillis) {
+        // A failed recording must not fail the request it belongs to
+        try {
+            byte[] recording = TextractCorpus.write(response, latencyMillis);
+            String name = UUID.randomUUID() + ".json";
+            if (s3Corpus != null) {
+                s3Client.putObject(PutObjectRequest.builder()
+                                .bucket(s3Corpus.bucket())
+                                .key(s3Corpus.key() + name)
+                                .contentType("application/json")
+                                .overrideConfiguration(o -> o.apiCallTimeout(PUT_TIMEOUT))
+                                .build(),
+                        RequestBody.fromBytes(recording));
+            } else {
+                Files.createDirectories(directoryCorpus);
+                Files.write(directoryCorpus.resolve(name), recording);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not record Textract response: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
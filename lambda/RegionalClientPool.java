@@ -0,0 +1,223 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Document;
+import software.amazon.awssdk.services.textract.model.TextractException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads DetectDocumentText calls over several regions to get more aggregate throughput
+ * than one region's quota allows. Each region has a token bucket refilled at its TPS
+ * quota that holds at least one token, so a share under 1 TPS still gets calls. Among
+ * regions with a token, a call goes to the one with the fewest outstanding requests
+ * relative to its quota. A region that throttles is taken out of rotation for a
+ * while, so its share moves to the others.
+ *
+ * Textract only reads S3 objects in its own region. The first region must be the media
+ * bucket's region; other regions are sent the document bytes, so documents over 5 MB
+ * always go to the first region.
+ */
+public class RegionalClientPool {
+
+    private static final long POLL_MILLIS = 20;
+
+    /** One region: its client, token bucket and load. Guarded by the pool's lock. */
+    private static class RegionSlot {
+        final Region region;
+        final double tps;
+        // A share under 1 TPS still needs room for one whole token
+        final double capacity;
+        TextractClient client;
+
+        double tokens;
+        long refilledNanos = System.nanoTime();
+        int outstanding;
+        long ejectedUntilNanos = refilledNanos;
+
+        RegionSlot(Region region, double tps) {
+            this.region = region;
+            this.tps = tps;
+            this.capacity = Math.max(1.0, tps);
+            this.tokens = capacity;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledNanos) / 1e9 * tps);
+            refilledNanos = now;
+        }
+    }
+
+    private final List<RegionSlot> slots;
+    private final long ejectMillis;
+
+    public RegionalClientPool(List<Region> regions, List<Double> quotas, long ejectMillis) {
+        this.slots = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            slots.add(new RegionSlot(regions.get(i), quotas.get(i)));
+        }
+        this.ejectMillis = ejectMillis;
+        createClients();
+    }
+
+    /**
+     * Returns a pool for TEXTRACT_POOL_REGIONS, a comma separated list of region:tps pairs
+     * with the media bucket's region first (e.g. "us-east-1:10,us-east-2:5"), or null if unset.
+     */
+    public static RegionalClientPool fromEnvironment() {
+        String regionList = System.getenv("TEXTRACT_POOL_REGIONS");
+        if (regionList == null || regionList.isBlank()) {
+            return null;
+        }
+        List<Region> regions = new ArrayList<>();
+        List<Double> quotas = new ArrayList<>();
+        for (String entry : regionList.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("TEXTRACT_POOL_REGIONS entries must be region:tps, got " + entry);
+            }
+            double tps = Double.parseDouble(entry.substring(colon + 1).trim());
+            if (!(tps > 0)) {
+                throw new IllegalArgumentException("TEXTRACT_POOL_REGIONS quotas must be positive, got " + entry);
+            }
+            regions.add(Region.of(entry.substring(0, colon).trim()));
+            quotas.add(tps);
+        }
+        return new RegionalClientPool(regions, quotas,
+                Long.parseLong(System.getenv().getOrDefault("POOL_EJECT_MILLIS", "5000")));
+    }
+
+    private void createClients() {
+        for (RegionSlot slot : slots) {
+            slot.client = TextractClient.builder()
+                    .region(slot.region)
+                    // Retried by DocumentExtractor.callTextract, usually in another region
+                    .overrideConfiguration(ClientOverrideConfiguration.builder()
+                            .retryPolicy(RetryPolicy.none())
+                            .build())
+                    .build();
+        }
+    }
+
+    public synchronized void recreateClients() {
+        List<TextractClient> oldClients = new ArrayList<>();
+        for (RegionSlot slot : slots) {
+            oldClients.add(slot.client);
+        }
+        createClients();
+        oldClients.forEach(TextractClient::close);
+    }
+
+    /**
+     * Calls DetectDocumentText in the best region that has capacity, waiting for a token
+     * until deadlineMillis. Throttling takes the region out of rotation and is rethrown,
+     * so the caller's retry goes elsewhere.
+     */
+    public DetectDocumentTextResponse detect(DetectDocumentTextRequest request, S3Client s3Client,
+            long deadlineMillis, InvocationMetrics metrics) {
+        RegionSlot slot = acquire(false, deadlineMillis);
+        DetectDocumentTextRequest regionalRequest = request;
+        if (slot != slots.get(0)) {
+            SdkBytes bytes = DocumentExtractor.readDocumentBytes(request, s3Client);
+            if (bytes != null) {
+                regionalRequest = request.toBuilder()
+                        .document(Document.builder().bytes(bytes).build())
+                        .build();
+            } else {
+                // Too large to send as bytes: only the home region can read it
+                release(slot, true);
+                slot = acquire(true, deadlineMillis);
+            }
+        }
+
+        metrics.count("TextractCalls." + slot.region.id(), 1);
+        try {
+            return slot.client.detectDocumentText(regionalRequest);
+        } catch (TextractException e) {
+            if (e.isThrottlingException()) {
+                eject(slot);
+                metrics.count("RegionEjections", 1);
+            }
+            throw e;
+        } finally {
+            release(slot, false);
+        }
+    }
+
+    private RegionSlot acquire(boolean homeOnly, long deadlineMillis) {
+        while (true) {
+            RegionSlot slot = tryAcquire(homeOnly);
+            if (slot != null) {
+                return slot;
+            }
+            if (System.currentTimeMillis() + POLL_MILLIS >= deadlineMillis) {
+                throw new TextractThrottledException("No Textract region has capacity, retry later", 1, null);
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for Textract capacity", e);
+            }
+        }
+    }
+
+    // Weighted least outstanding requests among regions in rotation that have a token
+    private synchronized RegionSlot tryAcquire(boolean homeOnly) {
+        long now = System.nanoTime();
+        RegionSlot best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < (homeOnly ? 1 : slots.size()); i++) {
+            RegionSlot slot = slots.get(i);
+            slot.refill(now);
+            if (slot.tokens < 1 || now < slot.ejectedUntilNanos) {
+                continue;
+            }
+            double load = (slot.outstanding + 1) / slot.tps;
+            if (load < bestLoad) {
+                best = slot;
+                bestLoad = load;
+            }
+        }
+        if (best != null) {
+            best.tokens -= 1;
+            best.outstanding++;
+        }
+        return best;
+    }
+
+    private synchronized void release(RegionSlot slot, boolean returnToken) {
+        slot.outstanding--;
+        if (returnToken) {
+            slot.tokens = Math.min(slot.capacity, slot.tokens + 1);
+        }
+    }
+
+    private synchronized void eject(RegionSlot slot) {
+        slot.ejectedUntilNanos = System.nanoTime() + ejectMillis * 1_000_000;
+        slot.tokens = 0;
+    }
+
+    /** Sum of the quotas of regions currently in rotation. */
+    public synchronized double availableTps() {
+        long now = System.nanoTime();
+        double tps = 0;
+        for (RegionSlot slot : slots) {
+            if (now >= slot.ejectedUntilNanos) {
+                tps += slot.tps;
+            }
+        }
+        return tps;
+    }
+}
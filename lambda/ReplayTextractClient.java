@@ -0,0 +1,68 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Document;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Serves DetectDocumentText from a corpus recorded by RecordingTextractClient, after the
+ * recorded latency (multiplied by timeScale; 0 answers at once). The same document always
+ * gets the same recording, so cache behaviour matches a run against Textract.
+ */
+public class ReplayTextractClient implements TextractClient {
+
+    private final List<TextractCorpus.Recording> recordings;
+    private final double timeScale;
+
+    public ReplayTextractClient(List<TextractCorpus.Recording> recordings, double timeScale) {
+        if (recordings.isEmpty()) {
+            throw new IllegalArgumentException("The corpus has no recordings");
+        }
+        this.recordings = recordings;
+        this.timeScale = timeScale;
+    }
+
+    public static ReplayTextractClient fromDirectory(Path directory, double timeScale) throws IOException {
+        return new ReplayTextractClient(TextractCorpus.readDirectory(directory), timeScale);
+    }
+
+    @Override
+    public DetectDocumentTextResponse detectDocumentText(DetectDocumentTextRequest request) {
+        TextractCorpus.Recording recording =
+                recordings.get(Math.floorMod(documentId(request.document()).hashCode(), recordings.size()));
+        long delayNanos = (long) (recording.latencyMillis() * timeScale * 1_000_000);
+        if (delayNanos > 0) {
+            try {
+                Thread.sleep(delayNanos / 1_000_000, (int) (delayNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return recording.response();
+    }
+
+    private static String documentId(Document document) {
+        if (document.s3Object() != null) {
+            return document.s3Object().bucket() + "/" + document.s3Object().name();
+        }
+        return String.valueOf(document.bytes().asByteBuffer().hashCode());
+    }
+
+    public int size() {
+        return recordings.size();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,105 @@
+package edu.uco.cicc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of extracted documents.
+ * An instance is kept in static scope by the handler, so it survives across invocations
+ * served by the same warm Lambda container. Entries are evicted in least-recently-used
+ * order once either the entry count or the approximate retained size exceeds its limit.
+ */
+public class ResultCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Access-ordered map: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, OcrDocument> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the cache key for an S3 object. The ETag changes whenever the object is
+     * overwritten, so a stale entry can never be served for new content.
+     */
+    public static String key(String bucketName, String objectKey, String eTag) {
+        return bucketName + "/" + objectKey + "#" + eTag;
+    }
+
+    /**
+     * Builds the cache key for a content fingerprint. Bucket names cannot contain ":", so
+     * these never collide with object keys. The same document may be cached under both;
+     * it is then counted twice against maxBytes.
+     */
+    public static String contentKey(String fingerprint) {
+        return "content:" + fingerprint;
+    }
+
+    public synchronized OcrDocument get(String key) {
+        OcrDocument value = entries.get(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Like get, but leaves the hit and miss counts alone; for secondary lookups such as
+     * content fingerprints, which the caller counts itself.
+     */
+    public synchronized OcrDocument find(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, OcrDocument value) {
+        long size = sizeOf(key, value);
+        if (maxEntries <= 0 || size > maxBytes) {
+            return; // never cache a single result larger than the whole budget
+        }
+
+        OcrDocument previous = entries.put(key, value);
+        if (previous != null) {
+            currentBytes -= sizeOf(key, previous);
+        }
+        currentBytes += size;
+
+        Iterator<Map.Entry<String, OcrDocument>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, OcrDocument> eldest = it.next();
+            currentBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+            it.remove();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return currentBytes;
+    }
+
+    private static long sizeOf(String key, OcrDocument value) {
+        return 2L * key.length() + value.estimatedBytes();
+    }
+}
@@ -0,0 +1,182 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Durable OCR results in S3, written when a document is uploaded and read by the API.
+ * Each result records the ETag of the source object it was extracted from, so a result
+ * for an object that has since been overwritten is never served.
+ *
+ * Results are also kept by content fingerprint (see ContentFingerprint), under content/.
+ * Those are keyed by the bytes themselves, so they can never be stale. The results of
+ * asynchronous text detection jobs are kept by job ID, under jobs/.
+ *
+ * Every call takes the deadline of the request it serves and is given only the time left
+ * before it, like the Textract calls (see DocumentExtractor.timeoutsUntil).
+ */
+public class ResultStore {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String SOURCE_ETAG = "source-etag";
+    private static final String CONTENT_PREFIX = "content/";
+    private static final String JOBS_PREFIX = "jobs/";
+
+    private final String bucketName;
+    private final String prefix;
+
+    public ResultStore(String bucketName, String prefix) {
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+    }
+
+    /**
+     * The store configured by the RESULTS_BUCKET environment variable, or null when unset.
+     */
+    public static ResultStore fromEnvironment() {
+        String bucket = System.getenv("RESULTS_BUCKET");
+        return bucket == null || bucket.isEmpty() ? null : new ResultStore(bucket, "results/");
+    }
+
+    /**
+     * Returns the stored result for the given version of an object, or null if there is none.
+     */
+    public OcrDocument get(S3Client s3Client, String sourceBucket, String sourceKey, String eTag,
+            long deadlineMillis) {
+        try (ResponseInputStream<GetObjectResponse> stored = s3Client.getObject(
+                getRequest(resultKey(sourceBucket, sourceKey), deadlineMillis))) {
+            // The metadata comes with the response headers, before any of the body is read
+            if (!eTag.equals(stored.response().metadata().get(SOURCE_ETAG))) {
+                stored.abort(); // extracted from an older version of the object
+                return null;
+            }
+            return read(stored);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the stored result for documents with the given content fingerprint, or null.
+     */
+    public OcrDocument getByContent(S3Client s3Client, String fingerprint, long deadlineMillis) {
+        try (ResponseInputStream<GetObjectResponse> stored = s3Client.getObject(
+                getRequest(contentKey(fingerprint), deadlineMillis))) {
+            return read(stored);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the stored result of a finished text detection job, or null.
+     */
+    public OcrDocument getJob(S3Client s3Client, String jobId, long deadlineMillis) {
+        try (ResponseInputStream<GetObjectResponse> stored = s3Client.getObject(
+                getRequest(JOBS_PREFIX + jobId + ".json", deadlineMillis))) {
+            return read(stored);
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * True if a result for the given version of an object is stored; reads only its metadata.
+     */
+    public boolean contains(S3Client s3Client, String sourceBucket, String sourceKey, String eTag,
+            long deadlineMillis) {
+        try {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(resultKey(sourceBucket, sourceKey))
+                    .overrideConfiguration(DocumentExtractor.timeoutsUntil(deadlineMillis))
+                    .build());
+            return eTag.equals(head.metadata().get(SOURCE_ETAG));
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    public void put(S3Client s3Client, String sourceBucket, String sourceKey, String eTag, OcrDocument document,
+            long deadlineMillis) {
+        write(s3Client, resultKey(sourceBucket, sourceKey), Map.of(SOURCE_ETAG, eTag), document, deadlineMillis);
+    }
+
+    public void putByContent(S3Client s3Client, String fingerprint, OcrDocument document, long deadlineMillis) {
+        write(s3Client, contentKey(fingerprint), Map.of(), document, deadlineMillis);
+    }
+
+    public void putJob(S3Client s3Client, String jobId, OcrDocument document, long deadlineMillis) {
+        write(s3Client, JOBS_PREFIX + jobId + ".json", Map.of(), document, deadlineMillis);
+    }
+
+    private GetObjectRequest getRequest(String key, long deadlineMillis) {
+        return GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .overrideConfiguration(DocumentExtractor.timeoutsUntil(deadlineMillis))
+                .build();
+    }
+
+    // Parses the body as it streams in
+    private static OcrDocument read(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.nextToken();
+            return OcrDocument.readFrom(parser);
+        }
+    }
+
+    private void write(S3Client s3Client, String key, Map<String, String> metadata, OcrDocument document,
+            long deadlineMillis) {
+        s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .contentType("application/json")
+                        .metadata(metadata)
+                        .overrideConfiguration(DocumentExtractor.timeoutsUntil(deadlineMillis))
+                        .build(),
+                RequestBody.fromBytes(serialize(document)));
+    }
+
+    private static byte[] serialize(OcrDocument document) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 * 1024);
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(buffer)) {
+            document.writeTo(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private String resultKey(String sourceBucket, String sourceKey) {
+        return prefix + sourceBucket + "/" + sourceKey + ".json";
+    }
+
+    // Outside the per-object prefix, where a source bucket could be named "content"
+    private static String contentKey(String fingerprint) {
+        return CONTENT_PREFIX + fingerprint + ".json";
+    }
+}
@@ -0,0 +1,36 @@
+package edu.uco.cicc;
+
+/**
+ * Bucket and key of an S3 object, as parsed from a URL by S3UrlParser.
+ * Mutable so that hot paths can parse into one reusable instance.
+ */
+public class S3Location {
+
+    private String bucket;
+    private String key;
+
+    public S3Location() {
+    }
+
+    public S3Location(String bucket, String key) {
+        set(bucket, key);
+    }
+
+    public void set(String bucket, String key) {
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    public String bucket() {
+        return bucket;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "s3://" + bucket + "/" + key;
+    }
+}
@@ -0,0 +1,231 @@
+package edu.uco.cicc;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass parser for the ways clients refer to an S3 object:
+ * <ul>
+ *   <li>{@code s3://bucket/key}</li>
+ *   <li>virtual-hosted: {@code https://bucket.s3.amazonaws.com/key}, {@code https://bucket.s3.region.amazonaws.com/key},
+ *       {@code https://bucket.s3-region.amazonaws.com/key}, including dotted bucket names</li>
+ *   <li>dualstack and accelerate: {@code https://bucket.s3.dualstack.region.amazonaws.com/key},
+ *       {@code https://bucket.s3-accelerate[.dualstack].amazonaws.com/key}</li>
+ *   <li>path-style: {@code https://s3[.dualstack][.region].amazonaws.com/bucket/key}</li>
+ * </ul>
+ * Keys of http(s) URLs are percent-decoded; '+' is a literal character in a URL path
+ * (RFC 3986), so it stays part of the key. Query strings and fragments (e.g. of presigned
+ * URLs) are ignored.
+ * Unlike the regular expression it replaces, it allocates nothing besides the bucket
+ * and key strings themselves.
+ */
+public final class S3UrlParser {
+
+    private S3UrlParser() {
+    }
+
+    /**
+     * Parses url into a new location.
+     *
+     * @throws IllegalArgumentException if url is not an S3 object URL
+     */
+    public static S3Location parse(String url) {
+        S3Location location = new S3Location();
+        if (!parse(url, location)) {
+            throw new IllegalArgumentException("Invalid S3 URL format");
+        }
+        return location;
+    }
+
+    /**
+     * Parses url into target. Returns false, leaving target untouched, if url is not an S3 object URL.
+     */
+    public static boolean parse(String url, S3Location target) {
+        if (url == null) {
+            return false;
+        }
+        if (url.startsWith("s3://")) {
+            int slash = url.indexOf('/', 5);
+            if (slash < 0 || !isBucketName(url, 5, slash) || slash + 1 == url.length()) {
+                return false;
+            }
+            target.set(url.substring(5, slash), url.substring(slash + 1));
+            return true;
+        }
+
+        int hostStart;
+        if (url.startsWith("https://")) {
+            hostStart = 8;
+        } else if (url.startsWith("http://")) {
+            hostStart = 7;
+        } else {
+            return false;
+        }
+
+        // Host ends at the first '/'; a port, if any, is not part of it
+        int pathStart = url.indexOf('/', hostStart);
+        if (pathStart < 0) {
+            return false;
+        }
+        int hostEnd = pathStart;
+        for (int i = hostStart; i < pathStart; i++) {
+            if (url.charAt(i) == ':') {
+                hostEnd = i;
+                break;
+            }
+        }
+        int pathEnd = url.length();
+        for (int i = pathStart; i < pathEnd; i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                pathEnd = i;
+                break;
+            }
+        }
+
+        int domainStart = endsWithIgnoreCase(url, hostEnd, ".amazonaws.com") ? hostEnd - 14
+                : endsWithIgnoreCase(url, hostEnd, ".amazonaws.com.cn") ? hostEnd - 17
+                : -1;
+        if (domainStart <= hostStart) {
+            return false;
+        }
+
+        // The service label ("s3", "s3-accelerate", "s3-us-west-2", ...) is the rightmost label
+        // that starts with "s3": region and "dualstack" labels never do, bucket labels may
+        int labelEnd = domainStart;
+        int serviceLabel = -1;
+        while (labelEnd > hostStart) {
+            int labelStart = labelEnd - 1;
+            while (labelStart > hostStart && url.charAt(labelStart - 1) != '.') {
+                labelStart--;
+            }
+            if (isServiceLabel(url, labelStart, labelEnd)) {
+                serviceLabel = labelStart;
+                break;
+            }
+            labelEnd = labelStart - 1;
+        }
+        if (serviceLabel < 0) {
+            return false;
+        }
+
+        int bucketStart;
+        int bucketEnd;
+        int keyStart;
+        if (serviceLabel == hostStart) {
+            // Path-style: /bucket/key
+            bucketStart = pathStart + 1;
+            bucketEnd = url.indexOf('/', bucketStart);
+            if (bucketEnd < 0 || bucketEnd > pathEnd) {
+                return false;
+            }
+            keyStart = bucketEnd + 1;
+        } else {
+            // Virtual-hosted: everything before ".s3" is the bucket
+            bucketStart = hostStart;
+            bucketEnd = serviceLabel - 1;
+            keyStart = pathStart + 1;
+        }
+        if (!isBucketName(url, bucketStart, bucketEnd) || keyStart >= pathEnd) {
+            return false;
+        }
+
+        String key = decodeKey(url, keyStart, pathEnd);
+        if (key == null) {
+            return false;
+        }
+        target.set(url.substring(bucketStart, bucketEnd), key);
+        return true;
+    }
+
+    private static boolean isServiceLabel(String s, int start, int end) {
+        if (end - start < 2 || (s.charAt(start) != 's' && s.charAt(start) != 'S') || s.charAt(start + 1) != '3') {
+            return false;
+        }
+        return end - start == 2 || s.charAt(start + 2) == '-';
+    }
+
+    // Bucket naming rules: 3-63 characters, lowercase letters, digits, dots and hyphens
+    private static boolean isBucketName(String s, int start, int end) {
+        int length = end - start;
+        if (length < 3 || length > 63) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWithIgnoreCase(String s, int end, String suffix) {
+        int start = end - suffix.length();
+        return start >= 0 && s.regionMatches(true, start, suffix, 0, suffix.length());
+    }
+
+    /**
+     * Percent-decodes s[start, end) as UTF-8.
+     * Returns a plain substring when nothing needs decoding, and null for a malformed escape.
+     */
+    private static String decodeKey(String s, int start, int end) {
+        int firstEncoded = s.indexOf('%', start);
+        if (firstEncoded >= end) {
+            firstEncoded = -1;
+        }
+        if (firstEncoded < 0) {
+            return s.substring(start, end);
+        }
+
+        // Decoded UTF-8 is never longer than the encoded characters, up to 3 bytes per char
+        byte[] bytes = new byte[(end - start) * 3];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (i < firstEncoded) {
+                length = putChar(bytes, length, s, i);
+                if (Character.isSupplementaryCodePoint(s.codePointAt(i))) {
+                    i++;
+                }
+            } else if (c == '%') {
+                if (i + 2 >= end) {
+                    return null;
+                }
+                int high = Character.digit(s.charAt(i + 1), 16);
+                int low = Character.digit(s.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                bytes[length++] = (byte) ((high << 4) | low);
+                i += 2;
+            } else {
+                length = putChar(bytes, length, s, i);
+                if (Character.isSupplementaryCodePoint(s.codePointAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Appends the UTF-8 encoding of the code point at s[i]
+    private static int putChar(byte[] bytes, int length, String s, int i) {
+        int cp = s.codePointAt(i);
+        if (cp < 0x80) {
+            bytes[length++] = (byte) cp;
+        } else if (cp < 0x800) {
+            bytes[length++] = (byte) (0xC0 | (cp >> 6));
+            bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            bytes[length++] = (byte) (0xE0 | (cp >> 12));
+            bytes[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            bytes[length++] = (byte) (0xF0 | (cp >> 18));
+            bytes[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            bytes[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+        }
+        return length;
+    }
+}
@@ -0,0 +1,254 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BoundingBox;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.DocumentMetadata;
+import software.amazon.awssdk.services.textract.model.Geometry;
+import software.amazon.awssdk.services.textract.model.Point;
+import software.amazon.awssdk.services.textract.model.Relationship;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * File format of recorded DetectDocumentText calls: one JSON file per call holding the
+ * observed latency and the response, in the field names of Textract's own JSON so that
+ * responses saved with the AWS CLI can be added by hand ({"Response": ...}).
+ *
+ * Recorded text is sanitized: letters become x or X and digits 9, keeping lengths,
+ * word boundaries and punctuation, so LINE text still matches its WORD blocks and
+ * serialization costs stay realistic, but no document content is kept.
+ */
+public final class TextractCorpus {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /** One recorded call. */
+    public static class Recording {
+        private final DetectDocumentTextResponse response;
+        private final long latencyMillis;
+
+        public Recording(DetectDocumentTextResponse response, long latencyMillis) {
+            this.response = response;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public DetectDocumentTextResponse response() {
+            return response;
+        }
+
+        public long latencyMillis() {
+            return latencyMillis;
+        }
+    }
+
+    private TextractCorpus() {
+    }
+
+    public static byte[] write(DetectDocumentTextResponse response, long latencyMillis) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256 + response.blocks().size() * 256);
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(buffer)) {
+            json.writeStartObject();
+            json.writeNumberField("LatencyMillis", latencyMillis);
+            json.writeObjectFieldStart("Response");
+            if (response.documentMetadata() != null && response.documentMetadata().pages() != null) {
+                json.writeObjectFieldStart("DocumentMetadata");
+                json.writeNumberField("Pages", response.documentMetadata().pages());
+                json.writeEndObject();
+            }
+            if (response.detectDocumentTextModelVersion() != null) {
+                json.writeStringField("DetectDocumentTextModelVersion", response.detectDocumentTextModelVersion());
+            }
+            json.writeArrayFieldStart("Blocks");
+            for (Block block : response.blocks()) {
+                writeBlock(json, block);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeBlock(JsonGenerator json, Block block) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("BlockType", block.blockTypeAsString());
+        if (block.confidence() != null) {
+            json.writeNumberField("Confidence", block.confidence());
+        }
+        if (block.text() != null) {
+            json.writeStringField("Text", sanitize(block.text()));
+        }
+        if (block.textType() != null) {
+            json.writeStringField("TextType", block.textTypeAsString());
+        }
+        if (block.geometry() != null) {
+            json.writeObjectFieldStart("Geometry");
+            BoundingBox box = block.geometry().boundingBox();
+            if (box != null) {
+                json.writeObjectFieldStart("BoundingBox");
+                json.writeNumberField("Width", box.width());
+                json.writeNumberField("Height", box.height());
+                json.writeNumberField("Left", box.left());
+                json.writeNumberField("Top", box.top());
+                json.writeEndObject();
+            }
+            if (block.geometry().hasPolygon()) {
+                json.writeArrayFieldStart("Polygon");
+                for (Point point : block.geometry().polygon()) {
+                    json.writeStartObject();
+                    json.writeNumberField("X", point.x());
+                    json.writeNumberField("Y", point.y());
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        }
+        if (block.id() != null) {
+            json.writeStringField("Id", block.id());
+        }
+        if (block.hasRelationships()) {
+            json.writeArrayFieldStart("Relationships");
+            for (Relationship relationship : block.relationships()) {
+                json.writeStartObject();
+                json.writeStringField("Type", relationship.typeAsString());
+                json.writeArrayFieldStart("Ids");
+                for (String id : relationship.ids()) {
+                    json.writeString(id);
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+        }
+        if (block.page() != null) {
+            json.writeNumberField("Page", block.page());
+        }
+        json.writeEndObject();
+    }
+
+    /**
+     * Keeps the shape of text but not its content.
+     */
+    public static String sanitize(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (Character.isDigit(c)) {
+                chars[i] = '9';
+            } else if (Character.isUpperCase(c)) {
+                chars[i] = 'X';
+            } else if (Character.isLetter(c)) {
+                chars[i] = 'x';
+            }
+        }
+        return new String(chars);
+    }
+
+    public static Recording read(InputStream in) throws IOException {
+        JsonNode root = OBJECT_MAPPER.readTree(in);
+        JsonNode response = root.path("Response");
+
+        List<Block> blocks = new ArrayList<>(response.path("Blocks").size());
+        for (JsonNode block : response.path("Blocks")) {
+            blocks.add(readBlock(block));
+        }
+        DetectDocumentTextResponse.Builder builder = DetectDocumentTextResponse.builder().blocks(blocks);
+        if (response.has("DocumentMetadata")) {
+            builder.documentMetadata(DocumentMetadata.builder()
+                    .pages(response.path("DocumentMetadata").path("Pages").asInt())
+                    .build());
+        }
+        if (response.has("DetectDocumentTextModelVersion")) {
+            builder.detectDocumentTextModelVersion(response.get("DetectDocumentTextModelVersion").asText());
+        }
+        return new Recording(builder.build(), root.path("LatencyMillis").asLong(0));
+    }
+
+    private static Block readBlock(JsonNode node) {
+        Block.Builder block = Block.builder().blockType(node.path("BlockType").asText());
+        if (node.has("Confidence")) {
+            block.confidence((float) node.get("Confidence").asDouble());
+        }
+        if (node.has("Text")) {
+            block.text(node.get("Text").asText());
+        }
+        if (node.has("TextType")) {
+            block.textType(node.get("TextType").asText());
+        }
+        if (node.has("Geometry")) {
+            JsonNode geometry = node.get("Geometry");
+            Geometry.Builder geometryBuilder = Geometry.builder();
+            if (geometry.has("BoundingBox")) {
+                JsonNode box = geometry.get("BoundingBox");
+                geometryBuilder.boundingBox(BoundingBox.builder()
+                        .width((float) box.path("Width").asDouble())
+                        .height((float) box.path("Height").asDouble())
+                        .left((float) box.path("Left").asDouble())
+                        .top((float) box.path("Top").asDouble())
+                        .build());
+            }
+            if (geometry.has("Polygon")) {
+                List<Point> polygon = new ArrayList<>(geometry.get("Polygon").size());
+                for (JsonNode point : geometry.get("Polygon")) {
+                    polygon.add(Point.builder()
+                            .x((float) point.path("X").asDouble())
+                            .y((float) point.path("Y").asDouble())
+                            .build());
+                }
+                geometryBuilder.polygon(polygon);
+            }
+            block.geometry(geometryBuilder.build());
+        }
+        if (node.has("Id")) {
+            block.id(node.get("Id").asText());
+        }
+        if (node.has("Relationships")) {
+            List<Relationship> relationships = new ArrayList<>();
+            for (JsonNode relationship : node.get("Relationships")) {
+                List<String> ids = new ArrayList<>(relationship.path("Ids").size());
+                relationship.path("Ids").forEach(id -> ids.add(id.asText()));
+                relationships.add(Relationship.builder()
+                        .type(relationship.path("Type").asText())
+                        .ids(ids)
+                        .build());
+            }
+            block.relationships(relationships);
+        }
+        if (node.has("Page")) {
+            block.page(node.get("Page").asInt());
+        }
+        return block.build();
+    }
+
+    /**
+     * Reads every .json recording in a directory, in file name order.
+     */
+    public static List<Recording> readDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.toString().endsWith(".json")).sorted().toList();
+        }
+        List<Recording> recordings = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try (InputStream in = Files.newInputStream(file)) {
+                recordings.add(read(in));
+            }
+        }
+        return recordings;
+    }
+}
@@ -1,21 +1,41 @@
 package edu.uco.cicc;
 
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.textract.TextractClient;
 import software.amazon.awssdk.services.textract.model.Block;
-import software.amazon.awssdk.services.textract.model.BlockType;
 import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
 import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
 import software.amazon.awssdk.services.textract.model.Document;
+import software.amazon.awssdk.services.textract.model.DocumentLocation;
+import software.amazon.awssdk.services.textract.model.GetDocumentTextDetectionRequest;
+import software.amazon.awssdk.services.textract.model.GetDocumentTextDetectionResponse;
+import software.amazon.awssdk.services.textract.model.JobStatus;
+import software.amazon.awssdk.services.textract.model.NotificationChannel;
 import software.amazon.awssdk.services.textract.model.S3Object;
+import software.amazon.awssdk.services.textract.model.StartDocumentTextDetectionRequest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // AWS Lambda Runtime Interface v2
 import com.amazonaws.services.lambda.runtime.Context;
@@ -23,99 +43,244 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
+// Checkpoint/restore hooks, invoked by Lambda SnapStart
+import org.crac.Core;
+import org.crac.Resource;
+
 /**
  * Note: The Lambda runtime library (com.amazonaws.services.lambda) is separate from the AWS SDK.
  * Even when using AWS SDK v2, Lambda functions still use the same runtime interface.
  * AWS has not released a v2 version of the Lambda runtime interface as of March 2025.
  */
-public class TextractHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class TextractHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>, Resource {
     
-    private final TextractClient textractClient;
+    private final DocumentExtractor extractor;
     private final ObjectMapper objectMapper;
+    private final JsonResponseWriter responseWriter;
+    
+    private static final ResultCache RESULT_CACHE = DocumentExtractor.resultCache();
+    
+    // Bounded pool shared by batch requests; it caps concurrent Textract calls per container
+    private static final int BATCH_PARALLELISM =
+            Integer.parseInt(System.getenv().getOrDefault("BATCH_PARALLELISM", "8"));
+    private static final int BATCH_MAX_ITEMS =
+            Integer.parseInt(System.getenv().getOrDefault("BATCH_MAX_ITEMS", "100"));
+    private static final AtomicInteger BATCH_THREADS = new AtomicInteger();
+    private static final ExecutorService BATCH_EXECUTOR = Executors.newFixedThreadPool(BATCH_PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "textract-batch-" + BATCH_THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Responses at least this large are gzip-compressed when the client accepts it; negative disables
+    // compression in the handler, e.g. when API Gateway compresses instead (minimumCompressionSize)
+    private static final int COMPRESSION_MIN_BYTES =
+            Integer.parseInt(System.getenv().getOrDefault("COMPRESSION_MIN_BYTES", "1024"));
     
-    // Regular expression to extract bucket name and key from S3 URL
-    private static final Pattern S3_URL_PATTERN = Pattern.compile(
-            "https://([^.]+)\\.s3\\.[^/]+\\.amazonaws\\.com/(.*)");
+    // Time kept back to serialize and return the response before the deadline
+    private static final long RESPONSE_RESERVE_MILLIS = 1000;
+    // API Gateway REST integrations give up after 29 s, before the 30 s Lambda timeout
+    private static final long API_GATEWAY_TIMEOUT_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("API_GATEWAY_TIMEOUT_MILLIS", "29000"));
+    
+    private static final String BATCH_RESOURCE = "/process-batch";
+    private static final String JOBS_RESOURCE = "/jobs";
+    private static final String JOB_RESOURCE = "/jobs/{id}";
+    
+    // SNS topic and role Textract uses to announce completion of asynchronous jobs
+    private static final String JOB_TOPIC_ARN = System.getenv("TEXTRACT_JOB_TOPIC_ARN");
+    private static final String JOB_ROLE_ARN = System.getenv("TEXTRACT_JOB_ROLE_ARN");
+    
+    // What the priming client answers DetectDocumentText with: one line of one word
+    private static final String PRIMING_RESPONSE = "{\"DocumentMetadata\": {\"Pages\": 1}, "
+            + "\"DetectDocumentTextModelVersion\": \"1.0\", \"Blocks\": ["
+            + "{\"BlockType\": \"LINE\", \"Id\": \"1\", \"Confidence\": 99.5, \"Text\": \"priming\", "
+            + "\"Geometry\": {\"BoundingBox\": {\"Width\": 0.5, \"Height\": 0.05, \"Left\": 0.1, \"Top\": 0.1}}, "
+            + "\"Relationships\": [{\"Type\": \"CHILD\", \"Ids\": [\"2\"]}]}, "
+            + "{\"BlockType\": \"WORD\", \"Id\": \"2\", \"Confidence\": 99.5, \"Text\": \"priming\", "
+            + "\"Geometry\": {\"BoundingBox\": {\"Width\": 0.5, \"Height\": 0.05, \"Left\": 0.1, \"Top\": 0.1}}}]}";
     
     public TextractHandler() {
-        this.textractClient = TextractClient.builder()
-                .region(Region.US_EAST_1) // Update with your region
-                .build();
+        this(new DocumentExtractor());
+    }
+    
+    /**
+     * Uses the given extractor, e.g. one built on stand-in clients for offline load tests.
+     */
+    public TextractHandler(DocumentExtractor extractor) {
+        this.extractor = extractor;
         this.objectMapper = new ObjectMapper();
+        this.responseWriter = new JsonResponseWriter();
+        
+        // With SnapStart enabled, beforeCheckpoint runs once before the snapshot is taken
+        Core.getGlobalContext().register(this);
+    }
+    
+    /**
+     * Runs the hot path once before SnapStart takes its snapshot, so class loading,
+     * JIT warm-up and SDK/Jackson initialization are captured in the snapshot rather
+     * than paid by the first request of every new execution environment.
+     * Nothing here leaves the process: the snapshot must not depend on the network,
+     * on any account's buckets, or on the state of the shared rate limiter.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+        // Jackson: request parsing and response writing for every output mode
+        JsonNode requestBody = objectMapper.readTree(
+                "{\"s3_url\": \"https://example.s3.us-east-1.amazonaws.com/priming.png\", \"mode\": \"full\"}");
+        S3UrlParser.parse(requestBody.get("s3_url").asText());
+        
+        // SDK: marshalling and signing of a DetectDocumentText request, and unmarshalling
+        // of a canned response, through a client that answers in process
+        DetectDocumentTextResponse primed;
+        try (TextractClient primingClient = TextractClient.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("priming", "priming")))
+                .httpClient(new CannedHttpClient(PRIMING_RESPONSE))
+                .build()) {
+            primed = primingClient.detectDocumentText(DetectDocumentTextRequest.builder()
+                    .document(Document.builder().bytes(SdkBytes.fromByteArray(new byte[16])).build())
+                    .build());
+        }
+        
+        OcrDocument document = OcrDocument.fromBlocks(primed.blocks());
+        for (OutputMode mode : OutputMode.values()) {
+            JsonGenerator json = responseWriter.begin();
+            json.writeStartObject();
+            document.writeFields(json, mode, 0f);
+            json.writeEndObject();
+            responseWriter.finish();
+        }
+        objectMapper.writeValueAsString(Map.of("error", "priming"));
+    }
+    
+    /**
+     * A restored snapshot may run hours later in a different environment: credentials
+     * captured at checkpoint time may have expired and pooled connections are dead,
+     * so the clients are built again.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) throws Exception {
+        extractor.recreateClients();
     }
     
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        APIGatewayProxyResponseEvent response = respond(input, context);
+        if (response.getBody() == null) {
+            response.setBody(responseWriter.body());
+        }
+        return response;
+    }
+    
+    /**
+     * Handles a request. A successful response comes back without a body: it is left in
+     * responseWriter(), so TextractStreamHandler can copy it to its output without first
+     * turning it into a String.
+     */
+    APIGatewayProxyResponseEvent respond(APIGatewayProxyRequestEvent input, Context context) {
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/json");
         // Add CORS headers
         headers.put("Access-Control-Allow-Origin", "*"); // Allow all origins
-        headers.put("Access-Control-Allow-Methods", "POST, OPTIONS"); // Allow POST and OPTIONS methods
+        headers.put("Access-Control-Allow-Methods", "GET, POST, OPTIONS"); // Allow GET, POST and OPTIONS methods
         headers.put("Access-Control-Allow-Headers", "Content-Type, Authorization"); // Allow specific headers
         response.setHeaders(headers);
         
+        InvocationMetrics metrics = new InvocationMetrics(input.getResource());
+        long deadline = deadline(input, context);
         try {
-            // Parse request body to get the S3 image URL
-            JsonNode requestBody = objectMapper.readTree(input.getBody());
-            String imageUrl = requestBody.get("s3_url").asText();
-            
-            // Extract bucket and key from S3 URL
-            Matcher matcher = S3_URL_PATTERN.matcher(imageUrl);
-            if (!matcher.matches()) {
-                throw new IllegalArgumentException("Invalid S3 URL format");
-            }
-            
-            String bucketName = matcher.group(1);
-            String objectKey = matcher.group(2);
-            
-            // context.getLogger().log("Processing image from bucket: " + bucketName + ", objectKey: " + objectKey);
+            // The body is streamed into a reusable buffer rather than built as a Map first
+            JsonGenerator json = responseWriter.begin();
+            int statusCode = 200;
             
-            // Configure Textract request using SDK v2 classes
-            // S3Object s3Object = S3Object.builder()
-            //         .bucket(bucketName)
-            //         .name(objectKey)
-            //         .build();
-            
-            // Document document = Document.builder()
-            //         .s3Object(s3Object)
-            //         .build();
-            
-            // DetectDocumentTextRequest detectRequest = DetectDocumentTextRequest.builder()
-            //         .document(document)
-            //         .build();
-            DetectDocumentTextRequest detectRequest = DetectDocumentTextRequest.builder()
-                    .document(Document.builder()
-                            .s3Object(S3Object.builder()
-                                    .bucket(bucketName)
-                                    .name(objectKey)
-                                    .build())
-                            .build())
-                    .build();
-            
-            // Call Textract service to extract text
-            DetectDocumentTextResponse result = textractClient.detectDocumentText(detectRequest);
-            // context.getLogger().log("Textract Response: " + result.toString());
-            
-            // Process the result
-            StringBuilder extractedText = new StringBuilder();
-            
-            for (Block block : result.blocks()) {
-                // context.getLogger().log("Block Type: " + block.blockType());
-                if (block.blockType() == BlockType.LINE || block.blockType() == BlockType.WORD) {
-                    // context.getLogger().log("Processed text from image: " + block.text());
-                    extractedText.append(block.text()).append("\n");
+            if (JOB_RESOURCE.equals(input.getResource())) {
+                // Job status and, once finished, the text of every page
+                Map<String, String> query = input.getQueryStringParameters() != null
+                        ? input.getQueryStringParameters() : Map.of();
+                statusCode = writeJobResult(input.getPathParameters().get("id"),
+                        OutputMode.parse(query.get("mode")), minConfidence(query.get("min_confidence")),
+                        json, deadline);
+            } else {
+                // Parse request body; an image body carries its options in the query string
+                long parseStart = System.nanoTime();
+                boolean imageBody = isDocumentType(header(input, "Content-Type"));
+                JsonNode requestBody = imageBody
+                        ? objectMapper.valueToTree(input.getQueryStringParameters() != null
+                                ? input.getQueryStringParameters() : Map.of())
+                        : readBody(input);
+                OutputMode mode = OutputMode.parse(requestBody.path("mode").asText(null));
+                float minConfidence = (float) requestBody.path("min_confidence").asDouble(0);
+                // "near_duplicates": false only accepts results extracted from these exact bytes
+                boolean nearDuplicates = requestBody.path("near_duplicates").asBoolean(true);
+                metrics.record(InvocationMetrics.Phase.PARSE_BODY, parseStart);
+                
+                if (JOBS_RESOURCE.equals(input.getResource())) {
+                    // Multi-page documents are processed asynchronously; the caller polls for the result
+                    json.writeStartObject();
+                    json.writeStringField("job_id", startJob(requestBody.get("s3_url").asText(), deadline));
+                    json.writeEndObject();
+                    statusCode = 202;
+                } else if (BATCH_RESOURCE.equals(input.getResource())) {
+                    writeBatch(requestBody.get("s3_urls"), mode, minConfidence, nearDuplicates, json, deadline, metrics,
+                            context);
+                } else {
+                    // Single image: sent as the body, base64 in "image", or an S3 image URL
+                    OcrDocument document;
+                    if (imageBody) {
+                        document = processBytes(imageBytes(input), headers, nearDuplicates, deadline, metrics);
+                    } else if (requestBody.hasNonNull("image")) {
+                        document = processBytes(SdkBytes.fromByteArrayUnsafe(
+                                Base64.getDecoder().decode(requestBody.get("image").asText())),
+                                headers, nearDuplicates, deadline, metrics);
+                    } else {
+                        String imageUrl = requestBody.get("s3_url").asText();
+                        document = processImage(imageUrl, headers, false, nearDuplicates, deadline, metrics);
+                    }
+                    long serializeStart = System.nanoTime();
+                    json.writeStartObject();
+                    document.writeFields(json, mode, minConfidence);
+                    json.writeEndObject();
+                    metrics.record(InvocationMetrics.Phase.SERIALIZE, serializeStart);
                 }
             }
             
-            // Create response
-            Map<String, Object> responseBody = new HashMap<>();
-            responseBody.put("text", extractedText.toString());
-            // context.getLogger().log("Extracted Text: " + extractedText.toString());
-            
-            response.setStatusCode(200);
-            response.setBody(objectMapper.writeValueAsString(responseBody));
+            long finishStart = System.nanoTime();
+            response.setStatusCode(statusCode);
+            responseWriter.end();
+            if (COMPRESSION_MIN_BYTES >= 0 && responseWriter.size() >= COMPRESSION_MIN_BYTES
+                    && acceptsGzip(header(input, "Accept-Encoding")) && acceptsBinaryJson(header(input, "Accept"))) {
+                // API Gateway decodes base64 bodies back to binary for the client
+                int compressedBytes = responseWriter.gzipBase64();
+                headers.put("Content-Encoding", "gzip");
+                response.setIsBase64Encoded(true);
+                metrics.set("CompressedBytes", compressedBytes, "Bytes");
+            }
+            // Caches must not hand a gzip body to a client that did not ask for one
+            headers.put("Vary", "Accept-Encoding");
+            metrics.record(InvocationMetrics.Phase.SERIALIZE, finishStart);
+            metrics.set("ResponseBytes", responseWriter.size(), "Bytes");
             
+        } catch (IllegalArgumentException e) {
+            // Bad URL, mode, option value or document: the request, not the server, is at fault
+            context.getLogger().log("Bad request: " + e.getMessage());
+            response.setStatusCode(400);
+            response.setBody(errorBody(Map.of("error", String.valueOf(e.getMessage()))));
+        } catch (TextractThrottledException e) {
+            // Not a server fault: the client should slow down and retry
+            context.getLogger().log("Throttled: " + e.getMessage());
+            headers.put("Retry-After", String.valueOf(e.retryAfterSeconds()));
+            response.setStatusCode(429);
+            response.setBody(errorBody(Map.of("error", String.valueOf(e.getMessage()))));
+        } catch (DeadlineExceededException | ApiCallTimeoutException e) {
+            // Answer before the gateway drops the connection; large documents fit better in /jobs
+            context.getLogger().log("Deadline exceeded: " + e.getMessage());
+            headers.put("Retry-After", "1");
+            response.setStatusCode(504);
+            response.setBody(errorBody(Map.of(
+                    "error", "Timed out before Textract answered",
+                    "hint", "Retry later, or submit the document to " + JOBS_RESOURCE)));
         } catch (Exception e) {
             context.getLogger().log("Error processing request: " + e.getMessage());
             
@@ -131,7 +296,330 @@ public class TextractHandler implements RequestHandler<APIGatewayProxyRequestEve
             }
         }
         
+        metrics.set("StatusCode", response.getStatusCode(), "None");
+        metrics.set("TextractRateLimit", DocumentExtractor.limiter().rate(), "Count/Second");
+        metrics.property("TextractThrottlesTotal", DocumentExtractor.limiter().throttles());
+        if (extractor.hedger() != null) {
+            metrics.set("HedgeDelay", extractor.hedger().delayMillis(), "Milliseconds");
+        }
+        metrics.property("CacheEntries", RESULT_CACHE.size());
+        metrics.property("CacheBytes", RESULT_CACHE.bytes());
+        metrics.property("CacheHitsTotal", RESULT_CACHE.hits());
+        metrics.property("CacheMissesTotal", RESULT_CACHE.misses());
+        metrics.property("ContentHitsTotal", DocumentExtractor.contentHits());
+        metrics.property("ContentMissesTotal", DocumentExtractor.contentMisses());
+        metrics.property("NearDuplicateEntries", DocumentExtractor.nearDuplicateEntries());
+        metrics.property("RequestId", context.getAwsRequestId());
+        metrics.emit(System.out);
         return response;
     }
+    
+    /**
+     * Holds the body of the last successful response from respond().
+     */
+    JsonResponseWriter responseWriter() {
+        return responseWriter;
+    }
+    
+    /**
+     * Returns the text blocks of one S3 image: cached, precomputed at upload time, shared with
+     * identical bytes under another key or with a near-duplicate image, or extracted now. When
+     * headers is not null, an X-Cache header reports which of these it was.
+     */
+    private OcrDocument processImage(String imageUrl, Map<String, String> headers, boolean packable,
+            boolean nearDuplicates, long deadline, InvocationMetrics metrics) {
+        // Extract bucket and key from S3 URL
+        long parseStart = System.nanoTime();
+        S3Location location = S3UrlParser.parse(imageUrl);
+        metrics.record(InvocationMetrics.Phase.PARSE_URL, parseStart);
+        
+        // context.getLogger().log("Processing image from bucket: " + location.bucket() + ", objectKey: " + location.key());
+        
+        DocumentExtractor.Extraction extraction = extractor.process(location, packable, nearDuplicates, deadline,
+                metrics);
+        if (headers != null) {
+            headers.put("X-Cache", cacheStatus(extraction.source()));
+        }
+        return extraction.document();
+    }
+    
+    /**
+     * Returns the text blocks of an image sent with the request. There is no S3 object to
+     * key a cache on, so only a result for identical bytes or a near-duplicate image is reused.
+     */
+    private OcrDocument processBytes(SdkBytes image, Map<String, String> headers, boolean nearDuplicates,
+            long deadline, InvocationMetrics metrics) {
+        DocumentExtractor.Extraction extraction = extractor.processBytes(image, nearDuplicates, deadline, metrics);
+        headers.put("X-Cache", cacheStatus(extraction.source()));
+        return extraction.document();
+    }
+    
+    private static String cacheStatus(DocumentExtractor.Source source) {
+        switch (source) {
+            case CACHE:
+                return "HIT";
+            case STORE:
+                return "PRECOMPUTED";
+            case DUPLICATE:
+                return "DUPLICATE";
+            case SIMILAR:
+                return "SIMILAR";
+            default:
+                return "MISS";
+        }
+    }
+    
+    /**
+     * Starts an asynchronous text detection job, which accepts multi-page PDF and TIFF
+     * documents. Textract publishes the completion status to the job SNS topic.
+     */
+    private String startJob(String documentUrl, long deadline) {
+        S3Location location = S3UrlParser.parse(documentUrl);
+        
+        StartDocumentTextDetectionRequest startRequest = StartDocumentTextDetectionRequest.builder()
+                .documentLocation(DocumentLocation.builder()
+                        .s3Object(S3Object.builder()
+                                .bucket(location.bucket())
+                                .name(location.key())
+                                .build())
+                        .build())
+                .notificationChannel(NotificationChannel.builder()
+                        .snsTopicArn(JOB_TOPIC_ARN)
+                        .roleArn(JOB_ROLE_ARN)
+                        .build())
+                .overrideConfiguration(DocumentExtractor.timeoutsUntil(deadline))
+                .build();
+        return extractor.textractClient().startDocumentTextDetection(startRequest).jobId();
+    }
+    
+    /**
+     * Writes the state of a job and returns the HTTP status code: 202 while it runs, 200 once
+     * it has succeeded or failed. Results JobCompletionHandler has saved are served from the
+     * result store. Otherwise, once the job has finished, result pages are fetched one at a
+     * time while the text is being written, so long documents never hold every page's blocks
+     * in memory at once.
+     * Only the text modes are supported here; FULL falls back to line text.
+     */
+    private int writeJobResult(String jobId, OutputMode mode, float minConfidence, JsonGenerator json, long deadline)
+            throws IOException {
+        OcrDocument stored = extractor.storedJobResult(jobId, deadline);
+        if (stored != null) {
+            json.writeStartObject();
+            json.writeStringField("job_id", jobId);
+            json.writeStringField("status", JobStatus.SUCCEEDED.toString());
+            stored.writeFields(json, mode == OutputMode.FULL ? OutputMode.LINES : mode, minConfidence);
+            json.writeEndObject();
+            return 200;
+        }
+        
+        GetDocumentTextDetectionResponse firstPage = getJobPage(jobId, null, deadline);
+        
+        json.writeStartObject();
+        json.writeStringField("job_id", jobId);
+        json.writeStringField("status", firstPage.jobStatusAsString());
+        
+        int statusCode = 200;
+        if (firstPage.jobStatus() == JobStatus.IN_PROGRESS) {
+            statusCode = 202;
+        } else if (firstPage.jobStatus() == JobStatus.FAILED) {
+            // The document could not be read; the request for its status succeeded
+            json.writeStringField("status_message", firstPage.statusMessage());
+        } else {
+            json.writeFieldName("text");
+            json.writeString(new BlockTextReader(new Iterator<List<Block>>() {
+                private GetDocumentTextDetectionResponse page = firstPage;
+                
+                @Override
+                public boolean hasNext() {
+                    return page != null;
+                }
+                
+                @Override
+                public List<Block> next() {
+                    List<Block> blocks = page.blocks();
+                    page = page.nextToken() != null ? getJobPage(jobId, page.nextToken(), deadline) : null;
+                    return blocks;
+                }
+            }, mode, minConfidence), -1);
+        }
+        json.writeEndObject();
+        return statusCode;
+    }
+    
+    private GetDocumentTextDetectionResponse getJobPage(String jobId, String nextToken, long deadline) {
+        return extractor.textractClient().getDocumentTextDetection(GetDocumentTextDetectionRequest.builder()
+                .jobId(jobId)
+                .nextToken(nextToken)
+                .overrideConfiguration(DocumentExtractor.timeoutsUntil(deadline))
+                .build());
+    }
+    
+    /**
+     * Processes several S3 images concurrently, at most BATCH_PARALLELISM at a time.
+     * Results and per-item errors are written in the same order as the input URLs.
+     */
+    private void writeBatch(JsonNode imageUrls, OutputMode mode, float minConfidence, boolean nearDuplicates,
+            JsonGenerator json, long deadline, InvocationMetrics metrics, Context context)
+            throws IOException, InterruptedException {
+        if (imageUrls == null || !imageUrls.isArray() || imageUrls.size() == 0) {
+            throw new IllegalArgumentException("s3_urls must be a non-empty array");
+        }
+        if (imageUrls.size() > BATCH_MAX_ITEMS) {
+            throw new IllegalArgumentException("s3_urls must not contain more than " + BATCH_MAX_ITEMS + " items");
+        }
+        
+        List<String> urls = new ArrayList<>(imageUrls.size());
+        List<Future<OcrDocument>> futures = new ArrayList<>(imageUrls.size());
+        for (JsonNode imageUrl : imageUrls) {
+            String url = imageUrl.asText();
+            urls.add(url);
+            // Batch items may share Textract calls (MOSAIC_MAX_IMAGE_EDGE)
+            futures.add(BATCH_EXECUTOR.submit(() -> processImage(url, null, true, nearDuplicates, deadline, metrics)));
+        }
+        
+        json.writeStartObject();
+        json.writeArrayFieldStart("results");
+        for (int i = 0; i < urls.size(); i++) {
+            json.writeStartObject();
+            json.writeStringField("s3_url", urls.get(i));
+            try {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                OcrDocument document = futures.get(i).get(wait, TimeUnit.MILLISECONDS);
+                long serializeStart = System.nanoTime();
+                document.writeFields(json, mode, minConfidence);
+                metrics.record(InvocationMetrics.Phase.SERIALIZE, serializeStart);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                context.getLogger().log("Error processing " + urls.get(i) + ": " + cause.getMessage());
+                json.writeStringField("error", cause.getMessage());
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                json.writeStringField("error", "Timed out before the image could be processed");
+            }
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+    
+    /**
+     * The time by which work for this request must be done: the earlier of the Lambda
+     * timeout and the API Gateway integration timeout, counted from when the gateway
+     * received the request, less time to write the response.
+     */
+    private static long deadline(APIGatewayProxyRequestEvent input, Context context) {
+        long deadline = System.currentTimeMillis() + context.getRemainingTimeInMillis();
+        if (input.getRequestContext() != null && input.getRequestContext().getRequestTimeEpoch() != null) {
+            deadline = Math.min(deadline, input.getRequestContext().getRequestTimeEpoch() + API_GATEWAY_TIMEOUT_MILLIS);
+        }
+        return deadline - RESPONSE_RESERVE_MILLIS;
+    }
+    
+    // A JSON error body; e.g. {"error": "..."}
+    private String errorBody(Map<String, String> fields) {
+        try {
+            return objectMapper.writeValueAsString(fields);
+        } catch (IOException e) {
+            return "{\"error\": \"Internal server error\"}";
+        }
+    }
+    
+    private static float minConfidence(String value) {
+        if (value == null) {
+            return 0f;
+        }
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("min_confidence must be a number: " + value);
+        }
+    }
+    
+    private JsonNode readBody(APIGatewayProxyRequestEvent input) throws IOException {
+        // With binary media types enabled on the API, request bodies arrive base64-encoded
+        if (Boolean.TRUE.equals(input.getIsBase64Encoded()) && input.getBody() != null) {
+            return objectMapper.readTree(Base64.getDecoder().decode(input.getBody()));
+        }
+        return objectMapper.readTree(input.getBody());
+    }
+    
+    // A binary body: API Gateway base64-encodes it when the API lists its media type
+    private static SdkBytes imageBytes(APIGatewayProxyRequestEvent input) {
+        if (!Boolean.TRUE.equals(input.getIsBase64Encoded()) || input.getBody() == null) {
+            throw new IllegalArgumentException("Image bodies must be sent with a binary media type");
+        }
+        // Decoded once and handed to the SDK without another copy
+        return SdkBytes.fromByteArrayUnsafe(Base64.getDecoder().decode(input.getBody()));
+    }
+    
+    // Content types Textract reads from bytes
+    private static boolean isDocumentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.trim().toLowerCase();
+        return type.startsWith("image/") || type.startsWith("application/pdf");
+    }
+    
+    // Header names are case-insensitive, and API Gateway passes them on as the client sent them
+    private static String header(APIGatewayProxyRequestEvent input, String name) {
+        if (input.getHeaders() == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : input.getHeaders().entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * True if the first type of an Accept value is application/json. API Gateway decodes a base64
+     * body to binary only when that type is one of the API's binary media types; for any other
+     * client a gzip body would arrive as base64 text.
+     */
+    private static boolean acceptsBinaryJson(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        int end = accept.indexOf(',');
+        String first = end < 0 ? accept : accept.substring(0, end);
+        int parameters = first.indexOf(';');
+        if (parameters >= 0) {
+            first = first.substring(0, parameters);
+        }
+        return first.trim().equalsIgnoreCase("application/json");
+    }
+    
+    /**
+     * True if an Accept-Encoding value lists gzip (or *) without q=0.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        rejected = true;
+                    }
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
-
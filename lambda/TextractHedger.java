@@ -0,0 +1,217 @@
+package edu.uco.cicc;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.textract.TextractAsyncClient;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedged DetectDocumentText calls across regions. A request goes to the home region
+ * first; if it has not answered by the recent 95th percentile latency, a copy goes to
+ * another region, the first answer wins and the other request is cancelled. Hedges are
+ * capped at a fraction of requests, so a slow region cannot double the load.
+ *
+ * Textract only reads S3 objects in its own region, so a hedge sends the document bytes
+ * instead of the S3 location, which limits hedging to documents of at most 5 MB.
+ */
+public class TextractHedger {
+
+    // Latencies the percentile is computed from, and how many are needed before trusting it
+    private static final int WINDOW = 512;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 32;
+    // Unused hedge allowance saved up for bursts
+    private static final double MAX_HEDGE_CREDITS = 10;
+
+    private final List<Region> regions;
+    private final double maxHedgeRate;
+    // Rebuilt after a SnapStart restore, so not final
+    private List<TextractAsyncClient> clients;
+
+    private final long[] latencies = new long[WINDOW];
+    private int latencyCount;
+    private long delayMillis;
+    private double hedgeCredits = 1;
+    private final AtomicInteger nextRegion = new AtomicInteger();
+
+    public TextractHedger(List<Region> regions, double maxHedgeRate, long initialDelayMillis) {
+        this.regions = regions;
+        this.maxHedgeRate = maxHedgeRate;
+        this.delayMillis = initialDelayMillis;
+        this.clients = createClients(regions);
+    }
+
+    /**
+     * Returns a hedger for TEXTRACT_REGIONS (comma separated, home region first, which must
+     * be the region of the media bucket), or null when fewer than two regions are configured.
+     */
+    public static TextractHedger fromEnvironment() {
+        String regionList = System.getenv("TEXTRACT_REGIONS");
+        if (regionList == null || regionList.isBlank()) {
+            return null;
+        }
+        List<Region> regions = new ArrayList<>();
+        for (String region : regionList.split(",")) {
+            if (!region.isBlank()) {
+                regions.add(Region.of(region.trim()));
+            }
+        }
+        if (regions.size() < 2) {
+            return null;
+        }
+        return new TextractHedger(regions,
+                Double.parseDouble(System.getenv().getOrDefault("HEDGE_MAX_RATE", "0.1")),
+                Long.parseLong(System.getenv().getOrDefault("HEDGE_INITIAL_DELAY_MILLIS", "2000")));
+    }
+
+    private static List<TextractAsyncClient> createClients(List<Region> regions) {
+        List<TextractAsyncClient> clients = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            clients.add(TextractAsyncClient.builder()
+                    .region(region)
+                    // Retried by DocumentExtractor.callTextract, like the synchronous client
+                    .overrideConfiguration(ClientOverrideConfiguration.builder()
+                            .retryPolicy(RetryPolicy.none())
+                            .build())
+                    .build());
+        }
+        return clients;
+    }
+
+    public void recreateClients() {
+        List<TextractAsyncClient> oldClients = clients;
+        clients = createClients(regions);
+        for (TextractAsyncClient client : oldClients) {
+            client.close();
+        }
+    }
+
+    /**
+     * Detects text in an S3 document, hedging to another region when the home region is slow.
+     * Errors are those of the SDK call that finished last, unwrapped from the future.
+     */
+    public DetectDocumentTextResponse detect(DetectDocumentTextRequest request, S3Client s3Client,
+            InvocationMetrics metrics) {
+        long start = System.nanoTime();
+        long delay = addCreditAndGetDelay();
+        CompletableFuture<DetectDocumentTextResponse> primary = clients.get(0).detectDocumentText(request);
+        try {
+            DetectDocumentTextResponse response = primary.get(delay, TimeUnit.MILLISECONDS);
+            recordLatency(start);
+            return response;
+        } catch (TimeoutException e) {
+            // Slower than usual: consider a hedge
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Textract", e);
+        }
+
+        SdkBytes bytes = tryTakeCredit() ? DocumentExtractor.readDocumentBytes(request, s3Client) : null;
+        if (bytes == null || primary.isDone()) {
+            return await(primary, start);
+        }
+
+        int region = 1 + Math.floorMod(nextRegion.getAndIncrement(), clients.size() - 1);
+        metrics.count("HedgesSent", 1);
+        CompletableFuture<DetectDocumentTextResponse> hedge = clients.get(region).detectDocumentText(request.toBuilder()
+                .document(Document.builder().bytes(bytes).build())
+                .build());
+        try {
+            DetectDocumentTextResponse response = await(firstSuccessful(primary, hedge), start);
+            if (!primary.isDone() || primary.isCompletedExceptionally()) {
+                metrics.count("HedgeWins", 1);
+            }
+            return response;
+        } finally {
+            // Aborts the losing HTTP request; no effect on the winner
+            primary.cancel(true);
+            hedge.cancel(true);
+        }
+    }
+
+    /** The first of two futures to succeed, or the last failure if both fail. */
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> future : Arrays.asList(first, second)) {
+            future.whenComplete((value, error) -> {
+                if (error == null) {
+                    result.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        return result;
+    }
+
+    private DetectDocumentTextResponse await(CompletableFuture<DetectDocumentTextResponse> future, long start) {
+        try {
+            DetectDocumentTextResponse response = future.get();
+            recordLatency(start);
+            return response;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Textract", e);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+    }
+
+    // Each request earns a fraction of a hedge; a hedge spends a whole one
+    private synchronized long addCreditAndGetDelay() {
+        hedgeCredits = Math.min(MAX_HEDGE_CREDITS, hedgeCredits + maxHedgeRate);
+        return delayMillis;
+    }
+
+    private synchronized boolean tryTakeCredit() {
+        if (hedgeCredits < 1) {
+            return false;
+        }
+        hedgeCredits -= 1;
+        return true;
+    }
+
+    // Time to first answer, whichever region it came from
+    private synchronized void recordLatency(long startNanos) {
+        latencies[latencyCount % WINDOW] = (System.nanoTime() - startNanos) / 1_000_000;
+        latencyCount++;
+        if (latencyCount == MIN_SAMPLES || latencyCount > MIN_SAMPLES && latencyCount % RECOMPUTE_EVERY == 0) {
+            long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, WINDOW));
+            Arrays.sort(sorted);
+            delayMillis = Math.max(1, sorted[(int) (sorted.length * 0.95)]);
+        }
+    }
+
+    /** Current hedge delay: the recent p95 latency, or the initial delay until there are enough samples. */
+    public synchronized long delayMillis() {
+        return delayMillis;
+    }
+}
@@ -0,0 +1,188 @@
+package edu.uco.cicc;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stream entry point for the same API as TextractHandler. The runtime hands over the raw
+ * proxy event instead of binding all of it (multi-value headers, identity, the whole
+ * request context) to POJOs by reflection; only the fields TextractHandler reads are
+ * pulled out with Jackson's streaming parser, and the proxy response is written straight
+ * to the output stream, its body escaped from the handler's buffer without becoming a
+ * String. Select it with cdk deploy -c handlerMode=stream.
+ */
+public class TextractStreamHandler implements RequestStreamHandler, Resource {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // Lower-case names of the request headers TextractHandler reads
+    private static final Set<String> HEADERS = Set.of("accept", "accept-encoding", "content-type");
+
+    private final TextractHandler handler;
+
+    public TextractStreamHandler() {
+        this(new TextractHandler());
+    }
+
+    public TextractStreamHandler(TextractHandler handler) {
+        this.handler = handler;
+        // TextractHandler registers itself and primes the request path; this adds the event I/O
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+        byte[] event = ("{\"resource\": \"/process-image\", "
+                + "\"headers\": {\"Accept\": \"application/json\", \"Accept-Encoding\": \"gzip\"}, "
+                + "\"requestContext\": {\"requestTimeEpoch\": 0}, \"body\": \"{}\", \"isBase64Encoded\": false}")
+                .getBytes(StandardCharsets.UTF_8);
+        APIGatewayProxyRequestEvent input = readEvent(new ByteArrayInputStream(event));
+        JsonResponseWriter body = new JsonResponseWriter();
+        body.begin().writeRawValue(input.getBody());
+        body.end();
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withStatusCode(200)
+                .withHeaders(Map.of("Content-Type", "application/json"));
+        writeResponse(response, body, OutputStream.nullOutputStream());
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) throws Exception {
+        // Nothing to rebuild; TextractHandler renews the SDK clients
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        writeResponse(handler.respond(readEvent(input), context), handler.responseWriter(), output);
+    }
+
+    /**
+     * Reads the proxy event fields TextractHandler uses and skips everything else.
+     */
+    static APIGatewayProxyRequestEvent readEvent(InputStream in) throws IOException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected an API Gateway proxy event");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "resource":
+                        event.setResource(parser.getValueAsString());
+                        break;
+                    case "httpMethod":
+                        event.setHttpMethod(parser.getValueAsString());
+                        break;
+                    case "body":
+                        event.setBody(parser.getValueAsString());
+                        break;
+                    case "isBase64Encoded":
+                        event.setIsBase64Encoded(value == JsonToken.VALUE_TRUE);
+                        break;
+                    case "headers":
+                        // Only the content type and content negotiation are looked at
+                        event.setHeaders(readStringMap(parser, HEADERS));
+                        break;
+                    case "pathParameters":
+                        event.setPathParameters(readStringMap(parser, null));
+                        break;
+                    case "queryStringParameters":
+                        event.setQueryStringParameters(readStringMap(parser, null));
+                        break;
+                    case "requestContext":
+                        event.setRequestContext(readRequestContext(parser));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        return event;
+    }
+
+    // Reads a flat object of strings (null stays null); with names, keeps only those keys, ignoring case
+    private static Map<String, String> readStringMap(JsonParser parser, Set<String> names) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (names == null || names.contains(name.toLowerCase())) {
+                map.put(name, parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return map;
+    }
+
+    private static APIGatewayProxyRequestEvent.ProxyRequestContext readRequestContext(JsonParser parser)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        APIGatewayProxyRequestEvent.ProxyRequestContext requestContext =
+                new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("requestTimeEpoch".equals(name)) {
+                requestContext.setRequestTimeEpoch(parser.getLongValue());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return requestContext;
+    }
+
+    /**
+     * Writes the proxy integration response: statusCode, headers, body, isBase64Encoded.
+     * A response without a body takes it from bodyWriter, escaped straight from its buffer.
+     */
+    static void writeResponse(APIGatewayProxyResponseEvent response, JsonResponseWriter bodyWriter, OutputStream out)
+            throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+            // The runtime owns the stream
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.writeStartObject();
+            json.writeNumberField("statusCode", response.getStatusCode());
+            if (response.getHeaders() != null) {
+                json.writeObjectFieldStart("headers");
+                for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+                    json.writeStringField(header.getKey(), header.getValue());
+                }
+                json.writeEndObject();
+            }
+            if (response.getBody() != null) {
+                json.writeStringField("body", response.getBody());
+            } else {
+                json.writeFieldName("body");
+                bodyWriter.writeBody(json);
+            }
+            json.writeBooleanField("isBase64Encoded", Boolean.TRUE.equals(response.getIsBase64Encoded()));
+            json.writeEndObject();
+        }
+    }
+}
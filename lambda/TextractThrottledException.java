@@ -0,0 +1,19 @@
+package edu.uco.cicc;
+
+/**
+ * Thrown when Textract kept throttling and there was no time left in the invocation to
+ * retry. The API returns it as 429 so clients back off instead of retrying immediately.
+ */
+public class TextractThrottledException extends RuntimeException {
+
+    private final int retryAfterSeconds;
+
+    public TextractThrottledException(String message, int retryAfterSeconds, Throwable cause) {
+        super(message, cause);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,60 @@
+package edu.uco.cicc;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Extracts text when a document is uploaded to the media bucket and saves it to the
+ * result store, so that /process-image usually finds the result already computed.
+ * Triggered by S3 ObjectCreated notifications.
+ */
+public class UploadEventHandler implements RequestHandler<S3Event, Void> {
+
+    // Single-image formats DetectDocumentText always accepts. PDFs and TIFFs may have several
+    // pages, which it rejects; they are left to the API path and its /jobs endpoint.
+    private static final Set<String> SUPPORTED_EXTENSIONS = Set.of("png", "jpg", "jpeg");
+
+    private final DocumentExtractor extractor;
+
+    public UploadEventHandler() {
+        this.extractor = new DocumentExtractor();
+    }
+
+    @Override
+    public Void handleRequest(S3Event event, Context context) {
+        for (S3EventNotification.S3EventNotificationRecord record : event.getRecords()) {
+            String bucketName = record.getS3().getBucket().getName();
+            String objectKey = record.getS3().getObject().getUrlDecodedKey();
+            if (!isSupported(objectKey)) {
+                context.getLogger().log("Skipping unsupported object: " + objectKey);
+                continue;
+            }
+
+            InvocationMetrics metrics = new InvocationMetrics("upload");
+            try {
+                OcrDocument document = extractor.precompute(bucketName, objectKey,
+                        System.currentTimeMillis() + context.getRemainingTimeInMillis(), metrics);
+                metrics.count("Precomputed", 1);
+                metrics.set("EntryCount", document.size(), "Count");
+            } catch (Exception e) {
+                // One bad upload must not stop the others; S3 retries the whole event otherwise
+                context.getLogger().log("Error precomputing " + bucketName + "/" + objectKey + ": " + e.getMessage());
+                metrics.count("PrecomputeErrors", 1);
+            }
+            metrics.set("TextractRateLimit", DocumentExtractor.limiter().rate(), "Count/Second");
+            metrics.property("RequestId", context.getAwsRequestId());
+            metrics.emit(System.out);
+        }
+        return null;
+    }
+
+    private static boolean isSupported(String objectKey) {
+        int dot = objectKey.lastIndexOf('.');
+        return dot >= 0 && SUPPORTED_EXTENSIONS.contains(objectKey.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
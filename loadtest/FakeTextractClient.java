@@ -0,0 +1,143 @@
+package edu.uco.cicc.loadtest;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.BoundingBox;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Document;
+import software.amazon.awssdk.services.textract.model.Geometry;
+import software.amazon.awssdk.services.textract.model.ThrottlingException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stand-in for Textract's DetectDocumentText. The same document always yields the same
+ * blocks: linesPerPage LINE blocks of wordsPerLine words each, followed by their WORD
+ * blocks, as Textract returns them. Latency is log-normal around a median, and a fraction
+ * of calls can be made to fail with ThrottlingException.
+ */
+public class FakeTextractClient implements TextractClient {
+
+    private static final String[] VOCABULARY = {
+        "invoice", "total", "amount", "date", "customer", "account", "number", "address",
+        "street", "city", "payment", "due", "balance", "item", "quantity", "price", "tax",
+        "order", "reference", "signature", "page", "summary", "description", "2024",
+    };
+
+    private final int linesPerPage;
+    private final int wordsPerLine;
+    private final double medianLatencyMillis;
+    private final double latencySigma;
+    private final double throttleRate;
+
+    // Built once per document, so the client's own allocation does not count against the handler
+    private final Map<String, DetectDocumentTextResponse> responses = new ConcurrentHashMap<>();
+
+    public FakeTextractClient(int linesPerPage, int wordsPerLine, double medianLatencyMillis,
+            double latencySigma, double throttleRate) {
+        this.linesPerPage = linesPerPage;
+        this.wordsPerLine = wordsPerLine;
+        this.medianLatencyMillis = medianLatencyMillis;
+        this.latencySigma = latencySigma;
+        this.throttleRate = throttleRate;
+    }
+
+    @Override
+    public DetectDocumentTextResponse detectDocumentText(DetectDocumentTextRequest request) {
+        sleep(medianLatencyMillis * Math.exp(latencySigma * ThreadLocalRandom.current().nextGaussian()));
+        if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+            throw (ThrottlingException) ThrottlingException.builder()
+                    .message("Rate exceeded")
+                    .statusCode(400)
+                    .awsErrorDetails(AwsErrorDetails.builder()
+                            .errorCode("ThrottlingException")
+                            .serviceName(serviceName())
+                            .build())
+                    .build();
+        }
+        return responses.computeIfAbsent(documentId(request.document()), this::buildResponse);
+    }
+
+    private static String documentId(Document document) {
+        if (document.s3Object() != null) {
+            return document.s3Object().bucket() + "/" + document.s3Object().name();
+        }
+        return "bytes:" + document.bytes().asByteBuffer().hashCode();
+    }
+
+    private DetectDocumentTextResponse buildResponse(String documentId) {
+        Random random = new Random(documentId.hashCode());
+        List<Block> lines = new ArrayList<>(linesPerPage);
+        List<Block> words = new ArrayList<>(linesPerPage * wordsPerLine);
+        float lineHeight = 0.9f / Math.max(1, linesPerPage);
+        for (int line = 0; line < linesPerPage; line++) {
+            float top = 0.05f + line * lineHeight;
+            float left = 0.05f;
+            StringBuilder lineText = new StringBuilder();
+            for (int word = 0; word < wordsPerLine; word++) {
+                String text = VOCABULARY[random.nextInt(VOCABULARY.length)];
+                float width = 0.012f * text.length();
+                words.add(block(BlockType.WORD, text, 80 + 20 * random.nextFloat(), left, top, width, lineHeight * 0.8f));
+                left += width + 0.01f;
+                if (word > 0) {
+                    lineText.append(' ');
+                }
+                lineText.append(text);
+            }
+            lines.add(block(BlockType.LINE, lineText.toString(), 85 + 15 * random.nextFloat(),
+                    0.05f, top, left - 0.06f, lineHeight * 0.8f));
+        }
+
+        List<Block> blocks = new ArrayList<>(1 + lines.size() + words.size());
+        blocks.add(Block.builder().blockType(BlockType.PAGE).build());
+        blocks.addAll(lines);
+        blocks.addAll(words);
+        return DetectDocumentTextResponse.builder().blocks(blocks).build();
+    }
+
+    static Block block(BlockType type, String text, float confidence,
+            float left, float top, float width, float height) {
+        return Block.builder()
+                .blockType(type)
+                .text(text)
+                .confidence(confidence)
+                .geometry(Geometry.builder()
+                        .boundingBox(BoundingBox.builder()
+                                .left(left)
+                                .top(top)
+                                .width(width)
+                                .height(height)
+                                .build())
+                        .build())
+                .build();
+    }
+
+    private static void sleep(double millis) {
+        long nanos = (long) (millis * 1_000_000);
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,127 @@
+package edu.uco.cicc.loadtest;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process stand-in for the S3 calls the handlers make: HeadObject, GetObject (with
+ * a byte range) and PutObject on a map of objects. ETags change whenever an object is
+ * overwritten.
+ */
+public class InMemoryS3Client implements S3Client {
+
+    private static class StoredObject {
+        final byte[] content;
+        final String eTag;
+        final Map<String, String> metadata;
+
+        StoredObject(byte[] content, String eTag, Map<String, String> metadata) {
+            this.content = content;
+            this.eTag = eTag;
+            this.metadata = metadata;
+        }
+    }
+
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+
+    public void put(String bucket, String key, byte[] content) {
+        put(bucket, key, content, Map.of());
+    }
+
+    private void put(String bucket, String key, byte[] content, Map<String, String> metadata) {
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(content))
+                + "-" + Long.toHexString(System.nanoTime()) + "\"";
+        objects.put(bucket + "/" + key, new StoredObject(content, eTag, Map.copyOf(metadata)));
+    }
+
+    private StoredObject find(String bucket, String key) {
+        StoredObject object = objects.get(bucket + "/" + key);
+        if (object == null) {
+            throw (NoSuchKeyException) NoSuchKeyException.builder()
+                    .message("The specified key does not exist: " + key)
+                    .statusCode(404)
+                    .build();
+        }
+        return object;
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        StoredObject object = find(request.bucket(), request.key());
+        return HeadObjectResponse.builder()
+                .eTag(object.eTag)
+                .contentLength((long) object.content.length)
+                .metadata(object.metadata)
+                .build();
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request,
+            ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        StoredObject object = find(request.bucket(), request.key());
+        int total = object.content.length;
+        int first = 0;
+        int last = total - 1;
+        // Only the "bytes=first-last" form of Range that the handlers use
+        if (request.range() != null && request.range().startsWith("bytes=")) {
+            String[] bounds = request.range().substring("bytes=".length()).split("-");
+            first = Integer.parseInt(bounds[0]);
+            last = Math.min(last, Integer.parseInt(bounds[1]));
+        }
+        GetObjectResponse response = GetObjectResponse.builder()
+                .eTag(object.eTag)
+                .contentLength((long) (last - first + 1))
+                .contentRange(request.range() != null ? "bytes " + first + "-" + last + "/" + total : null)
+                .metadata(object.metadata)
+                .build();
+        try {
+            return responseTransformer.transform(response, AbortableInputStream.create(
+                    new ByteArrayInputStream(object.content, first, last - first + 1)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        return getObject(request, ResponseTransformer.toInputStream());
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        try (InputStream in = requestBody.contentStreamProvider().newStream()) {
+            put(request.bucket(), request.key(), in.readAllBytes(),
+                    request.metadata() != null ? request.metadata() : Map.of());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return PutObjectResponse.builder().eTag(find(request.bucket(), request.key()).eTag).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
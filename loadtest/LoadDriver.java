@@ -0,0 +1,246 @@
+package edu.uco.cicc.loadtest;
+
+import edu.uco.cicc.DocumentExtractor;
+import edu.uco.cicc.ReplayTextractClient;
+import edu.uco.cicc.TextractHandler;
+
+import software.amazon.awssdk.services.textract.TextractClient;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fires synthetic API Gateway events at TextractHandler, backed by FakeTextractClient and
+ * InMemoryS3Client, and reports latency percentiles, throughput and allocation per request.
+ *
+ * Each worker thread owns a handler, like one Lambda execution environment; the result
+ * cache and the Textract rate limiter are static and therefore shared, as in one container.
+ * Settings are environment variables:
+ *
+ *   LOADTEST_CONCURRENCY        worker threads (8)
+ *   LOADTEST_REQUESTS           measured requests (2000), after LOADTEST_WARMUP more (500)
+ *   LOADTEST_RATE               total requests per second; 0 sends back to back (0)
+ *   LOADTEST_ROUTE              /process-image or /process-batch (/process-image)
+ *   LOADTEST_BATCH_SIZE         URLs per /process-batch request (10)
+ *   LOADTEST_DOCUMENTS          distinct documents; few documents means many cache hits (1000)
+ *   LOADTEST_MODE               lines, words or full (lines)
+ *   LOADTEST_GZIP               send Accept-Encoding: gzip (false)
+ *   LOADTEST_LINES              LINE blocks per document (50), of LOADTEST_WORDS_PER_LINE words (8)
+ *   LOADTEST_LATENCY_MEDIAN_MS  median fake Textract latency (300), log-normal with
+ *   LOADTEST_LATENCY_SIGMA      this sigma (0.5)
+ *   LOADTEST_THROTTLE_RATE      fraction of Textract calls that throttle (0)
+ *   LOADTEST_CORPUS             replay recorded responses from this directory instead of
+ *                               generating blocks (see RecordingTextractClient), at their
+ *   LOADTEST_REPLAY_TIME_SCALE  recorded latency times this factor (1)
+ *   LOADTEST_HISTOGRAM_FILE     also write the full latency distribution here (unset)
+ *
+ * With LOADTEST_RATE set, latency is measured from when a request was due rather than
+ * when it was sent, so a stall shows up in the percentiles instead of being hidden by
+ * the requests that were never sent during it.
+ */
+public class LoadDriver {
+
+    private static final String BUCKET = "loadtest-media";
+    private static final long HIGHEST_TRACKABLE_MICROS = 60_000_000;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = intSetting("LOADTEST_CONCURRENCY", 8);
+        int requests = intSetting("LOADTEST_REQUESTS", 2000);
+        int warmup = intSetting("LOADTEST_WARMUP", 500);
+        double rate = doubleSetting("LOADTEST_RATE", 0);
+        String route = setting("LOADTEST_ROUTE", "/process-image");
+        int batchSize = intSetting("LOADTEST_BATCH_SIZE", 10);
+        int documents = intSetting("LOADTEST_DOCUMENTS", 1000);
+        String mode = setting("LOADTEST_MODE", "lines");
+        boolean gzip = Boolean.parseBoolean(setting("LOADTEST_GZIP", "false"));
+
+        String corpus = System.getenv("LOADTEST_CORPUS");
+        TextractClient textract = corpus != null
+                ? ReplayTextractClient.fromDirectory(Paths.get(corpus), doubleSetting("LOADTEST_REPLAY_TIME_SCALE", 1))
+                : new FakeTextractClient(
+                        intSetting("LOADTEST_LINES", 50),
+                        intSetting("LOADTEST_WORDS_PER_LINE", 8),
+                        doubleSetting("LOADTEST_LATENCY_MEDIAN_MS", 300),
+                        doubleSetting("LOADTEST_LATENCY_SIGMA", 0.5),
+                        doubleSetting("LOADTEST_THROTTLE_RATE", 0));
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        for (int i = 0; i < documents; i++) {
+            // Distinct bytes, so content deduplication does not merge documents
+            s3.put(BUCKET, documentKey(i), ByteBuffer.allocate(Integer.BYTES).putInt(i).array());
+        }
+
+        // The handler writes one metrics line per request to stdout; keep it out of the report
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        run(concurrency, warmup, 0, route, batchSize, documents, mode, gzip, textract, s3);
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        Result result = run(concurrency, requests, rate, route, batchSize, documents, mode, gzip, textract, s3);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // Workers have exited by now, so their allocation is counted separately
+        long allocated = allocatedBytes() - allocatedBefore + result.workerAllocatedBytes;
+        System.setOut(report);
+
+        Histogram latency = result.latency;
+        report.printf("route=%s concurrency=%d requests=%d rate=%s documents=%d mode=%s gzip=%s textract=%s%n",
+                route, concurrency, requests, rate > 0 ? String.valueOf(rate) : "unbounded", documents, mode, gzip,
+                corpus != null ? "replay " + corpus : "synthetic");
+        report.printf("throughput      %.1f requests/s%n", requests / seconds);
+        report.printf("latency ms      p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMaxValue() / 1000.0);
+        report.printf("allocation      %d bytes/request%n", allocated / requests);
+        report.printf("status codes    %s%n", result.statusCodes);
+
+        String histogramFile = System.getenv("LOADTEST_HISTOGRAM_FILE");
+        if (histogramFile != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(histogramFile))) {
+                latency.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    private static class Result {
+        final Histogram latency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Map<Integer, Integer> statusCodes = new TreeMap<>();
+        long workerAllocatedBytes;
+    }
+
+    private static Result run(int concurrency, int requests, double rate, String route, int batchSize,
+            int documents, String mode, boolean gzip, TextractClient textract, InMemoryS3Client s3)
+            throws InterruptedException {
+        AtomicInteger remaining = new AtomicInteger(requests);
+        List<Thread> workers = new ArrayList<>(concurrency);
+        List<Result> results = new ArrayList<>(concurrency);
+        long intervalNanos = rate > 0 ? (long) (1e9 * concurrency / rate) : 0;
+
+        for (int w = 0; w < concurrency; w++) {
+            Result result = new Result();
+            results.add(result);
+            TextractHandler handler = new TextractHandler(new DocumentExtractor(textract, s3, null));
+            Thread worker = new Thread(() -> {
+                long allocatedBefore = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long due = System.nanoTime();
+                while (remaining.getAndDecrement() > 0) {
+                    if (intervalNanos > 0) {
+                        due += intervalNanos;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            sleepNanos(wait);
+                        }
+                    }
+                    long start = intervalNanos > 0 ? due : System.nanoTime();
+                    APIGatewayProxyResponseEvent response = handler.handleRequest(
+                            event(route, batchSize, documents, mode, gzip), new FakeContext(30_000));
+                    result.latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (System.nanoTime() - start) / 1000));
+                    result.statusCodes.merge(response.getStatusCode(), 1, Integer::sum);
+                }
+                result.workerAllocatedBytes =
+                        THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+            }, "loadtest-" + w);
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Result total = new Result();
+        for (Result result : results) {
+            total.latency.add(result.latency);
+            result.statusCodes.forEach((status, count) -> total.statusCodes.merge(status, count, Integer::sum));
+            total.workerAllocatedBytes += result.workerAllocatedBytes;
+        }
+        return total;
+    }
+
+    private static APIGatewayProxyRequestEvent event(String route, int batchSize, int documents, String mode,
+            boolean gzip) {
+        StringBuilder body = new StringBuilder("{");
+        if ("/process-batch".equals(route)) {
+            body.append("\"s3_urls\": [");
+            for (int i = 0; i < batchSize; i++) {
+                body.append(i > 0 ? ", " : "").append('"').append(randomDocumentUrl(documents)).append('"');
+            }
+            body.append(']');
+        } else {
+            body.append("\"s3_url\": \"").append(randomDocumentUrl(documents)).append('"');
+        }
+        body.append(", \"mode\": \"").append(mode).append("\"}");
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        if (gzip) {
+            headers.put("Accept-Encoding", "gzip");
+        }
+        return new APIGatewayProxyRequestEvent()
+                .withResource(route)
+                .withPath(route)
+                .withHttpMethod("POST")
+                .withHeaders(headers)
+                .withBody(body.toString())
+                .withRequestContext(new APIGatewayProxyRequestEvent.ProxyRequestContext()
+                        .withRequestTimeEpoch(System.currentTimeMillis()));
+    }
+
+    private static String randomDocumentUrl(int documents) {
+        return "https://" + BUCKET + ".s3.us-east-1.amazonaws.com/"
+                + documentKey(ThreadLocalRandom.current().nextInt(documents));
+    }
+
+    private static String documentKey(int index) {
+        return String.format("documents/page-%05d.png", index);
+    }
+
+    // Bytes allocated so far by all live threads, including the handler's batch pool
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long allocated : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String setting(String name, String defaultValue) {
+        return System.getenv().getOrDefault(name, defaultValue);
+    }
+
+    private static int intSetting(String name, int defaultValue) {
+        return Integer.parseInt(setting(name, String.valueOf(defaultValue)));
+    }
+
+    private static double doubleSetting(String name, double defaultValue) {
+        return Double.parseDouble(setting(name, String.valueOf(defaultValue)));
+    }
+}
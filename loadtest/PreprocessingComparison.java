@@ -0,0 +1,196 @@
+package edu.uco.cicc.loadtest;
+
+import edu.uco.cicc.ImagePreprocessor;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextRequest;
+import software.amazon.awssdk.services.textract.model.DetectDocumentTextResponse;
+import software.amazon.awssdk.services.textract.model.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sends every image of a local corpus to the real Textract once per preprocessing level
+ * and reports, per level, the bytes sent, Textract latency and word accuracy. Needs AWS
+ * credentials and calls DetectDocumentText (images x levels x repeats) times.
+ *
+ * Accuracy is the word F1 score against a reference: the words of image.txt next to the
+ * image when there is one (ground truth), otherwise what Textract read from the original.
+ * Settings are environment variables:
+ *
+ *   LOADTEST_IMAGES          directory of PNG, JPEG or TIFF images (required)
+ *   LOADTEST_LEVELS          levels to compare (none,downscale,grayscale,binarize)
+ *   LOADTEST_MAX_LONG_EDGE   long edge to downscale to, in pixels (3000)
+ *   LOADTEST_REPEATS         calls per image and level; the median latency is kept (3)
+ *
+ * Run with mvn exec:exec@preprocess. Prints one CSV row per image and level, then a summary.
+ */
+public class PreprocessingComparison {
+
+    private static final long MAX_DOCUMENT_BYTES = 5L * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        String images = System.getenv("LOADTEST_IMAGES");
+        if (images == null) {
+            throw new IllegalArgumentException("Set LOADTEST_IMAGES to a directory of images");
+        }
+        List<ImagePreprocessor.Level> levels = Arrays.stream(
+                        setting("LOADTEST_LEVELS", "none,downscale,grayscale,binarize").split(","))
+                .map(ImagePreprocessor.Level::parse)
+                .collect(Collectors.toList());
+        int maxLongEdge = Integer.parseInt(setting("LOADTEST_MAX_LONG_EDGE", "3000"));
+        int repeats = Integer.parseInt(setting("LOADTEST_REPEATS", "3"));
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(Paths.get(images))) {
+            files = listing.filter(PreprocessingComparison::isImage).sorted().collect(Collectors.toList());
+        }
+
+        Map<ImagePreprocessor.Level, Summary> summaries = new LinkedHashMap<>();
+        try (TextractClient textract = TextractClient.create()) {
+            System.out.println("image,level,bytes,latency_ms,words,f1,mean_confidence");
+            for (Path file : files) {
+                byte[] original = Files.readAllBytes(file);
+                List<String> reference = groundTruth(file);
+                for (ImagePreprocessor.Level level : levels) {
+                    byte[] sent = new ImagePreprocessor(level, maxLongEdge)
+                            .process(new ByteArrayInputStream(original), original.length);
+                    if (sent == null) {
+                        sent = original;
+                    }
+                    if (sent.length > MAX_DOCUMENT_BYTES) {
+                        System.out.printf("%s,%s,%d,,,,%n", file.getFileName(), level, sent.length);
+                        continue; // too large for bytes at this level
+                    }
+
+                    long[] latencies = new long[repeats];
+                    DetectDocumentTextResponse response = null;
+                    for (int i = 0; i < repeats; i++) {
+                        long start = System.nanoTime();
+                        response = textract.detectDocumentText(DetectDocumentTextRequest.builder()
+                                .document(Document.builder().bytes(SdkBytes.fromByteArrayUnsafe(sent)).build())
+                                .build());
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    Arrays.sort(latencies);
+                    double latencyMillis = latencies[repeats / 2] / 1e6;
+
+                    List<String> words = words(response);
+                    if (reference == null) {
+                        reference = words; // the first level, normally none, is the reference
+                    }
+                    double f1 = f1(words, reference);
+                    double confidence = response.blocks().stream()
+                            .filter(block -> block.blockType() == BlockType.WORD)
+                            .mapToDouble(Block::confidence)
+                            .average().orElse(0);
+                    System.out.printf(Locale.ROOT, "%s,%s,%d,%.1f,%d,%.4f,%.2f%n", file.getFileName(), level,
+                            sent.length, latencyMillis, words.size(), f1, confidence);
+                    summaries.computeIfAbsent(level, l -> new Summary()).add(sent.length, latencyMillis, f1);
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println("level,images,total_bytes,median_latency_ms,mean_f1");
+        for (Map.Entry<ImagePreprocessor.Level, Summary> entry : summaries.entrySet()) {
+            Summary summary = entry.getValue();
+            System.out.printf(Locale.ROOT, "%s,%d,%d,%.1f,%.4f%n", entry.getKey(), summary.latencies.size(),
+                    summary.bytes, summary.medianLatency(), summary.f1 / summary.latencies.size());
+        }
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")
+                || name.endsWith(".tif") || name.endsWith(".tiff");
+    }
+
+    // Words of image.txt next to image.png, or null when there is none
+    private static List<String> groundTruth(Path image) throws IOException {
+        String name = image.getFileName().toString();
+        Path text = image.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".txt");
+        return Files.exists(text) ? tokens(Files.readString(text)) : null;
+    }
+
+    private static List<String> words(DetectDocumentTextResponse response) {
+        List<String> words = new ArrayList<>();
+        for (Block block : response.blocks()) {
+            if (block.blockType() == BlockType.WORD) {
+                words.addAll(tokens(block.text()));
+            }
+        }
+        return words;
+    }
+
+    private static List<String> tokens(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? Collections.emptyList() : Arrays.asList(trimmed.split("\\s+"));
+    }
+
+    /**
+     * Harmonic mean of word precision and recall, counting each word as often as it occurs.
+     */
+    static double f1(List<String> words, List<String> reference) {
+        if (words.isEmpty() && reference.isEmpty()) {
+            return 1;
+        }
+        Map<String, Integer> remaining = new HashMap<>();
+        for (String word : reference) {
+            remaining.merge(word, 1, Integer::sum);
+        }
+        int matched = 0;
+        for (String word : words) {
+            Integer count = remaining.get(word);
+            if (count != null && count > 0) {
+                remaining.put(word, count - 1);
+                matched++;
+            }
+        }
+        if (matched == 0) {
+            return 0;
+        }
+        double precision = (double) matched / words.size();
+        double recall = (double) matched / reference.size();
+        return 2 * precision * recall / (precision + recall);
+    }
+
+    private static String setting(String name, String defaultValue) {
+        return System.getenv().getOrDefault(name, defaultValue);
+    }
+
+    private static class Summary {
+        long bytes;
+        double f1;
+        final List<Double> latencies = new ArrayList<>();
+
+        void add(long sentBytes, double latencyMillis, double wordF1) {
+            bytes += sentBytes;
+            f1 += wordF1;
+            latencies.add(latencyMillis);
+        }
+
+        double medianLatency() {
+            List<Double> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            return sorted.get(sorted.size() / 2);
+        }
+    }
+}
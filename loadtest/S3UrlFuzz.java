@@ -0,0 +1,240 @@
+package edu.uco.cicc.loadtest;
+
+import edu.uco.cicc.S3Location;
+import edu.uco.cicc.S3UrlParser;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Differential fuzz test of S3UrlParser against S3_URL_PATTERN, the regular expression it
+ * replaced, on random URLs built from S3 URL fragments and then mutated character by
+ * character. Three properties are checked:
+ *
+ * 1. Wherever the regex matches, the parser agrees on bucket and key, apart from what it
+ *    was written to do differently: it rejects bucket names S3 does not allow, empty keys
+ *    and malformed escapes, drops query strings and fragments, and percent-decodes keys
+ *    ('+' stays '+'). Hosts the regex only matches by accident, with a port (':'), an empty
+ *    label or a second "s3" label between bucket and domain, are not compared.
+ * 2. The parser never throws; it accepts or rejects.
+ * 3. A random bucket and key, percent-encoded into every supported URL style, parse back
+ *    to exactly that bucket and key.
+ *
+ * Run with mvn exec:exec@s3url (LOADTEST_FUZZ_CASES, 1000000; LOADTEST_SEED, random);
+ * exits with status 1 and prints the first failing URLs when a check fails.
+ */
+public class S3UrlFuzz {
+
+    // The pattern TextractHandler used before S3UrlParser, with the region part captured too
+    private static final Pattern S3_URL_PATTERN = Pattern.compile(
+            "https://([^.]+)\\.s3\\.([^/]+)\\.amazonaws\\.com/(.*)");
+    private static final Pattern BUCKET_NAME = Pattern.compile("[a-z0-9.-]{3,63}");
+    private static final Pattern MALFORMED_ESCAPE = Pattern.compile("%(?![0-9A-Fa-f]{2})");
+    private static final Pattern SERVICE_LABEL = Pattern.compile("(^|.*\\.)[sS]3(-[^.]*)?(\\..*|$)");
+
+    private static final String[] SCHEMES = {"https://", "https://", "http://", "s3://", "ftp://", ""};
+    private static final String[] BUCKETS = {
+        "media", "uco-cicc-media", "my.dotted.bucket", "ab", "Upper", "under_score", "s3-bucket",
+        "x".repeat(63), "x".repeat(64), "",
+    };
+    private static final String[] ENDPOINTS = {
+        ".s3.amazonaws.com", ".s3.us-east-1.amazonaws.com", ".s3-us-west-2.amazonaws.com",
+        ".s3.dualstack.eu-west-1.amazonaws.com", ".s3-accelerate.amazonaws.com",
+        ".s3-accelerate.dualstack.amazonaws.com", ".s3.cn-north-1.amazonaws.com.cn",
+        ".s3.us-east-1.amazonaws.com:443", ".amazonaws.com", ".s3.example.com", "",
+    };
+    private static final String[] KEYS = {
+        "a.png", "scans/2024/page 1.png", "a+b.png", "caf%C3%A9.jpg", "100%25.png", "bad%zz.png",
+        "trail%", "dir/", "", "x?X-Amz-Signature=abc", "x#frag", "ünï.png", "emoji-📄.png",
+        "%E2%82%AC", "%C3", "a//b",
+    };
+    // Characters mutations insert, weighted towards the ones URLs give meaning to
+    private static final String MUTATIONS = "/.:%?#+-_ aZ09%2Fs3é";
+    private static final String KEY_CHARACTERS =
+            "abcxyzABC019-_.!*'()/ +%&=?#~éü€📄";
+
+    private static final int MAX_REPORTED = 10;
+
+    public static void main(String[] args) {
+        long cases = Long.parseLong(System.getenv().getOrDefault("LOADTEST_FUZZ_CASES", "1000000"));
+        long seed = Long.parseLong(System.getenv().getOrDefault("LOADTEST_SEED",
+                String.valueOf(System.nanoTime())));
+        Random random = new Random(seed);
+
+        long regexMatches = 0;
+        long skipped = 0;
+        long failures = 0;
+        S3Location location = new S3Location();
+        for (long i = 0; i < cases; i++) {
+            String url = mutate(randomUrl(random), random);
+            String problem;
+            try {
+                boolean parsed = S3UrlParser.parse(url, location);
+                Matcher matcher = S3_URL_PATTERN.matcher(url);
+                String region = matcher.matches() ? matcher.group(2) : null;
+                if (region != null && (region.indexOf(':') >= 0 || region.startsWith(".") || region.contains("..")
+                        || SERVICE_LABEL.matcher(region).matches())) {
+                    skipped++;
+                    problem = null;
+                } else if (region != null) {
+                    regexMatches++;
+                    problem = compare(matcher.group(1), matcher.group(3), parsed, location);
+                } else {
+                    problem = null;
+                }
+            } catch (RuntimeException e) {
+                problem = "threw " + e;
+            }
+            if (problem == null) {
+                problem = roundTrip(random, location);
+            }
+            if (problem != null && ++failures <= MAX_REPORTED) {
+                System.out.println("FAIL " + problem + "\n     url: " + url);
+            }
+        }
+
+        System.out.printf("%d cases (seed %d), %d compared with the regex, %d skipped, %d failures%n",
+                cases, seed, regexMatches, skipped, failures);
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * What the parser should have made of a URL the regex matched, or null if it did.
+     */
+    private static String compare(String regexBucket, String regexKey, boolean parsed, S3Location location) {
+        String key = regexKey;
+        int end = indexOfAny(key, "?#");
+        if (end >= 0) {
+            key = key.substring(0, end);
+        }
+        // URLDecoder reads '+' as a space, so protect it first; it also takes "%+1" for an escape
+        String expectedKey = MALFORMED_ESCAPE.matcher(key).find() ? null
+                : URLDecoder.decode(key.replace("+", "%2B"), StandardCharsets.UTF_8);
+        boolean expectAccept = BUCKET_NAME.matcher(regexBucket).matches() && !key.isEmpty() && expectedKey != null;
+
+        if (parsed != expectAccept) {
+            return (parsed ? "accepted" : "rejected") + " bucket " + regexBucket + ", key " + regexKey;
+        }
+        if (parsed && (!regexBucket.equals(location.bucket()) || !expectedKey.equals(location.key()))) {
+            return "parsed " + location + ", expected s3://" + regexBucket + "/" + expectedKey;
+        }
+        return null;
+    }
+
+    /**
+     * Encodes a random bucket and key into every URL style and checks they parse back.
+     */
+    private static String roundTrip(Random random, S3Location location) {
+        String bucket = randomBucket(random);
+        String key = randomKey(random);
+        String encoded = encodeKey(key);
+        String[] urls = {
+            "s3://" + bucket + "/" + key,
+            "https://" + bucket + ".s3.amazonaws.com/" + encoded,
+            "https://" + bucket + ".s3.us-east-2.amazonaws.com/" + encoded,
+            "https://" + bucket + ".s3-us-west-2.amazonaws.com/" + encoded,
+            "https://" + bucket + ".s3.dualstack.eu-west-1.amazonaws.com/" + encoded + "?versionId=1",
+            "https://" + bucket + ".s3-accelerate.amazonaws.com/" + encoded,
+            "https://s3.us-east-1.amazonaws.com/" + bucket + "/" + encoded,
+            "https://s3.amazonaws.com/" + bucket + "/" + encoded + "#top",
+        };
+        for (String url : urls) {
+            // s3:// URIs are not decoded, so only keys without '%' survive them unchanged
+            if (url.startsWith("s3://") && key.indexOf('%') >= 0) {
+                continue;
+            }
+            if (!S3UrlParser.parse(url, location)) {
+                return "round trip rejected " + url;
+            }
+            if (!bucket.equals(location.bucket()) || !key.equals(location.key())) {
+                return "round trip of s3://" + bucket + "/" + key + " parsed " + location + " from " + url;
+            }
+        }
+        return null;
+    }
+
+    private static String randomUrl(Random random) {
+        return pick(SCHEMES, random) + pick(BUCKETS, random) + pick(ENDPOINTS, random)
+                + (random.nextInt(10) == 0 ? "" : "/") + pick(KEYS, random);
+    }
+
+    // Zero to three random insertions, deletions or replacements
+    private static String mutate(String url, Random random) {
+        StringBuilder builder = new StringBuilder(url);
+        int mutations = random.nextInt(4);
+        for (int i = 0; i < mutations; i++) {
+            int position = random.nextInt(builder.length() + 1);
+            char c = MUTATIONS.charAt(random.nextInt(MUTATIONS.length()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    builder.insert(position, c);
+                    break;
+                case 1:
+                    if (position < builder.length()) {
+                        builder.deleteCharAt(position);
+                    }
+                    break;
+                default:
+                    if (position < builder.length()) {
+                        builder.setCharAt(position, c);
+                    }
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String randomBucket(Random random) {
+        String characters = "abcdefghijklmnopqrstuvwxyz0123456789";
+        StringBuilder bucket = new StringBuilder();
+        int length = 3 + random.nextInt(20);
+        for (int i = 0; i < length; i++) {
+            boolean edge = i == 0 || i == length - 1;
+            bucket.append(!edge && random.nextInt(8) == 0 ? (random.nextBoolean() ? '.' : '-')
+                    : characters.charAt(random.nextInt(characters.length())));
+        }
+        return bucket.toString();
+    }
+
+    private static String randomKey(Random random) {
+        int[] codePoints = KEY_CHARACTERS.codePoints().toArray();
+        StringBuilder key = new StringBuilder();
+        int length = 1 + random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            key.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return key.toString();
+    }
+
+    // Percent-encodes everything but unreserved characters, '/' and '+'
+    private static String encodeKey(String key) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "-._~/+".indexOf(c) >= 0) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static int indexOfAny(String s, String characters) {
+        for (int i = 0; i < s.length(); i++) {
+            if (characters.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,225 @@
+package edu.uco.cicc.loadtest;
+
+import edu.uco.cicc.DocumentExtractor;
+import edu.uco.cicc.ImageTiler;
+import edu.uco.cicc.InvocationMetrics;
+import edu.uco.cicc.OcrDocument;
+import edu.uco.cicc.TextractHandler;
+
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Offline check of tiled OCR. Renders a poster larger than the tile threshold, with text
+ * columns that cross tile edges, and knows where every word is.
+ *
+ * 1. ImageTiler reads the poster with a stand-in for Textract that returns the words
+ *    inside each tile, and cuts words at the tile edge the way OCR does. Every word must
+ *    come back exactly once at its page position, and every line must be rebuilt.
+ * 2. The poster is put into InMemoryS3Client and requested through TextractHandler with
+ *    FakeTextractClient and TILE_LONG_EDGE set, to check the S3, tiling and response path.
+ *
+ * Run with mvn exec:exec@tiling; exits with status 1 when a check fails.
+ */
+public class TilingScenario {
+
+    private static final int WIDTH = 10_000;
+    private static final int HEIGHT = 7_000;
+    private static final int TILE_LONG_EDGE = 6000;
+    private static final int TILE_SIZE = 2500;
+    private static final int TILE_OVERLAP = 250;
+    // Pixels a stitched box may be off by; boxes go through float page coordinates
+    private static final double TOLERANCE = 2;
+
+    private static final String[] VOCABULARY = {
+        "valve", "flange", "pipe", "rev", "drawing", "scale", "sheet", "detail", "section",
+        "north", "elevation", "bolt", "M12", "weld", "50mm", "steel", "note", "grade",
+    };
+
+    /** A word of the poster, in pixels. */
+    private static class Word {
+        final String text;
+        final double left;
+        final double top;
+        final double width;
+        final double height;
+
+        Word(String text, double left, double top, double width, double height) {
+            this.text = text;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Word> words = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        byte[] poster = render(words, lines);
+        System.out.printf("poster %dx%d, %d bytes, %d words in %d lines%n",
+                WIDTH, HEIGHT, poster.length, words.size(), lines.size());
+
+        boolean passed = checkStitching(poster, words, lines);
+        passed &= checkHandler(poster);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Three columns of short lines; column edges and row spacing do not line up with tiles
+    private static byte[] render(List<Word> words, List<String> lines) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 44));
+        FontMetrics metrics = graphics.getFontMetrics();
+
+        Random random = new Random(42);
+        int[] columns = {150, 3380, 6610};
+        for (int column : columns) {
+            for (int baseline = 180; baseline < HEIGHT - 100; baseline += 137) {
+                StringBuilder line = new StringBuilder();
+                int x = column;
+                int count = 3 + random.nextInt(5);
+                for (int i = 0; i < count; i++) {
+                    String text = VOCABULARY[random.nextInt(VOCABULARY.length)];
+                    graphics.drawString(text, x, baseline);
+                    int width = metrics.stringWidth(text);
+                    words.add(new Word(text, x, baseline - metrics.getAscent(), width,
+                            metrics.getAscent() + metrics.getDescent()));
+                    if (line.length() > 0) {
+                        line.append(' ');
+                    }
+                    line.append(text);
+                    x += width + metrics.stringWidth(" ");
+                }
+                lines.add(line.toString());
+            }
+        }
+        graphics.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static boolean checkStitching(byte[] poster, List<Word> words, List<String> lines) {
+        ImageTiler tiler = new ImageTiler(TILE_LONG_EDGE, TILE_SIZE, TILE_OVERLAP);
+        InvocationMetrics metrics = new InvocationMetrics("tiling-scenario");
+        OcrDocument document = tiler.extract(poster, tile -> read(tile, words),
+                System.currentTimeMillis() + 60_000, metrics);
+        // Tiles, TileCutWords and TileDuplicateWords show the edges were actually exercised
+        metrics.emit(System.out);
+
+        List<Word> unmatched = new ArrayList<>(words);
+        int extra = 0;
+        Set<String> stitchedLines = new HashSet<>();
+        for (int i = 0; i < document.size(); i++) {
+            if (document.type(i) == OcrDocument.LINE) {
+                stitchedLines.add(document.text(i));
+                continue;
+            }
+            double left = document.left(i) * WIDTH;
+            double top = document.top(i) * HEIGHT;
+            Word match = null;
+            for (Word word : unmatched) {
+                if (word.text.equals(document.text(i)) && Math.abs(word.left - left) <= TOLERANCE
+                        && Math.abs(word.top - top) <= TOLERANCE) {
+                    match = word;
+                    break;
+                }
+            }
+            if (match != null) {
+                unmatched.remove(match);
+            } else {
+                extra++;
+            }
+        }
+        int missingLines = 0;
+        for (String line : lines) {
+            if (!stitchedLines.contains(line)) {
+                missingLines++;
+            }
+        }
+
+        System.out.printf("stitching: %d of %d words matched, %d missing, %d extra; %d of %d lines rebuilt%n",
+                words.size() - unmatched.size(), words.size(), unmatched.size(), extra,
+                lines.size() - missingLines, lines.size());
+        for (Word word : unmatched.subList(0, Math.min(5, unmatched.size()))) {
+            System.out.printf("  missing \"%s\" at %.0f,%.0f%n", word.text, word.left, word.top);
+        }
+        return unmatched.isEmpty() && extra == 0 && missingLines == 0;
+    }
+
+    /**
+     * What OCR of one tile returns: words inside it, relative to the tile, with words crossing
+     * its edge cut to the visible part. Lines are left out; the tiler rebuilds them.
+     */
+    private static List<Block> read(ImageTiler.Tile tile, List<Word> words) {
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(Block.builder().blockType(BlockType.PAGE).build());
+        for (Word word : words) {
+            double left = Math.max(word.left, tile.x());
+            double right = Math.min(word.left + word.width, tile.x() + tile.width());
+            double top = Math.max(word.top, tile.y());
+            double bottom = Math.min(word.top + word.height, tile.y() + tile.height());
+            if (right <= left || bottom - top < word.height / 2) {
+                continue; // outside, or too little of it to read
+            }
+            // A cut word reads as the characters that are visible
+            String text = word.text;
+            if (right - left < word.width) {
+                int visible = Math.max(1, (int) (text.length() * (right - left) / word.width));
+                text = left > word.left ? text.substring(text.length() - visible) : text.substring(0, visible);
+            }
+            blocks.add(FakeTextractClient.block(BlockType.WORD, text, 95f,
+                    (float) ((left - tile.x()) / tile.width()), (float) ((top - tile.y()) / tile.height()),
+                    (float) ((right - left) / tile.width()), (float) ((bottom - top) / tile.height())));
+        }
+        return blocks;
+    }
+
+    private static boolean checkHandler(byte[] poster) {
+        if (System.getenv("TILE_LONG_EDGE") == null) {
+            System.out.println("handler: skipped, TILE_LONG_EDGE is not set");
+            return true;
+        }
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        s3.put("loadtest-media", "poster.png", poster);
+        TextractHandler handler = new TextractHandler(new DocumentExtractor(
+                new FakeTextractClient(20, 6, 50, 0.3, 0), s3, null));
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withResource("/process-image")
+                .withHttpMethod("POST")
+                .withHeaders(Map.of("Content-Type", "application/json"))
+                .withBody("{\"s3_url\": \"https://loadtest-media.s3.us-east-1.amazonaws.com/poster.png\"}"),
+                new FakeContext());
+        System.out.printf("handler: status %d, %d response bytes%n", response.getStatusCode(),
+                response.getBody() != null ? response.getBody().length() : 0);
+        return response.getStatusCode() == 200;
+    }
+}
@@ -0,0 +1,56 @@
+#!/usr/bin/env bash
+# Measures cold starts of the Textract function, with and without SnapStart.
+#
+# Every iteration forces a new execution environment by changing an environment
+# variable, then invokes once and reads the REPORT line of the invocation log:
+#   - on $LATEST (no SnapStart) the cold start cost is "Init Duration"
+#   - on the "live" alias (SnapStart) it is "Restore Duration"; a new version is
+#     published and the alias moved to it every iteration, which triggers a snapshot
+#
+# Usage: scripts/measure-cold-start.sh <function-name> [iterations] [latest|snapstart] [s3-url]
+# Example:
+#   scripts/measure-cold-start.sh cicc-AmplifyTextractDemoStack-ciccTextractFunction-XXXX 10 latest
+#   scripts/measure-cold-start.sh cicc-AmplifyTextractDemoStack-ciccTextractFunction-XXXX 10 snapstart
+# Requires the AWS CLI and jq.
+set -euo pipefail
+
+FUNCTION_NAME="$1"
+ITERATIONS="${2:-10}"
+TARGET="${3:-latest}"
+S3_URL="${4:-https://uco-cicc-media.s3.us-east-1.amazonaws.com/sample.png}"
+
+PAYLOAD=$(jq -cn --arg url "$S3_URL" \
+    '{resource: "/process-image", httpMethod: "POST", body: ({s3_url: $url} | tojson)}')
+PAYLOAD_FILE=$(mktemp)
+OUTPUT_FILE=$(mktemp)
+trap 'rm -f "$PAYLOAD_FILE" "$OUTPUT_FILE"' EXIT
+echo "$PAYLOAD" > "$PAYLOAD_FILE"
+
+echo "iteration,init_or_restore_ms,duration_ms"
+for i in $(seq 1 "$ITERATIONS"); do
+    # Any configuration change retires the existing execution environments
+    ENVIRONMENT=$(aws lambda get-function-configuration --function-name "$FUNCTION_NAME" \
+        --query 'Environment.Variables' --output json \
+        | jq -c --arg nonce "$(date +%s%N)" '{Variables: (. + {COLD_START_NONCE: $nonce})}')
+    aws lambda update-function-configuration --function-name "$FUNCTION_NAME" \
+        --environment "$ENVIRONMENT" > /dev/null
+    aws lambda wait function-updated --function-name "$FUNCTION_NAME"
+
+    QUALIFIER='$LATEST'
+    if [ "$TARGET" = "snapstart" ]; then
+        VERSION=$(aws lambda publish-version --function-name "$FUNCTION_NAME" --query Version --output text)
+        aws lambda wait published-version-active --function-name "$FUNCTION_NAME" --qualifier "$VERSION"
+        aws lambda update-alias --function-name "$FUNCTION_NAME" --name live --function-version "$VERSION" > /dev/null
+        QUALIFIER=live
+    fi
+
+    REPORT=$(aws lambda invoke --function-name "$FUNCTION_NAME" --qualifier "$QUALIFIER" \
+        --cli-binary-format raw-in-base64-out --payload "file://$PAYLOAD_FILE" \
+        --log-type Tail --query LogResult --output text "$OUTPUT_FILE" \
+        | base64 --decode | grep '^REPORT')
+
+    # REPORT fields are tab-separated, e.g. "Duration: 812.34 ms", "Restore Duration: 356.12 ms"
+    COLD=$(echo "$REPORT" | tr '\t' '\n' | awk '/^(Init|Restore) Duration:/ {print $3}')
+    DURATION=$(echo "$REPORT" | tr '\t' '\n' | awk '/^Duration:/ {print $2}')
+    echo "$i,$COLD,$DURATION"
+done
@@ -3,9 +3,11 @@ package edu.uco.cicc;
 import software.constructs.Construct;
 import software.amazon.awscdk.CfnOutput;
 import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.Size;
 import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,17 +31,35 @@ import software.amazon.awscdk.services.apigateway.MockIntegration;
 import software.amazon.awscdk.services.apigateway.Resource;
 import software.amazon.awscdk.services.apigateway.RestApi;
 import software.amazon.awscdk.services.apigateway.StageOptions;
+import software.amazon.awscdk.services.cloudwatch.Dashboard;
+import software.amazon.awscdk.services.cloudwatch.GraphWidget;
+import software.amazon.awscdk.services.cloudwatch.IMetric;
+import software.amazon.awscdk.services.cloudwatch.IWidget;
+import software.amazon.awscdk.services.cloudwatch.Metric;
 import software.amazon.awscdk.services.codebuild.BuildSpec;
 import software.amazon.awscdk.services.iam.Effect;
 import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.iam.Role;
+import software.amazon.awscdk.services.iam.ServicePrincipal;
+import software.amazon.awscdk.services.lambda.Alias;
 import software.amazon.awscdk.services.lambda.Code;
 import software.amazon.awscdk.services.lambda.Function;
 import software.amazon.awscdk.services.lambda.FunctionProps;
 import software.amazon.awscdk.services.lambda.Runtime;
+import software.amazon.awscdk.services.lambda.SnapStartConf;
+import software.amazon.awscdk.services.lambda.eventsources.SqsEventSource;
+import software.amazon.awscdk.services.s3.BlockPublicAccess;
 import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.BucketEncryption;
+import software.amazon.awscdk.services.s3.EventType;
+import software.amazon.awscdk.services.s3.IBucket;
+import software.amazon.awscdk.services.s3.notifications.LambdaDestination;
 import software.amazon.awscdk.services.secretsmanager.ISecret;
 import software.amazon.awscdk.services.secretsmanager.Secret;
+import software.amazon.awscdk.services.sns.Topic;
+import software.amazon.awscdk.services.sns.subscriptions.SqsSubscription;
+import software.amazon.awscdk.services.sqs.DeadLetterQueue;
+import software.amazon.awscdk.services.sqs.Queue;
 
 public class AmplifyTextractDemoStack extends Stack {
     public AmplifyTextractDemoStack(final Construct scope, final String id) {
@@ -56,37 +76,312 @@ public class AmplifyTextractDemoStack extends Stack {
         //         .visibilityTimeout(Duration.seconds(300))
         //         .build();
 
-         // 1. Create Lambda function for processing images with Textract
+         // 1. Notification channel for asynchronous (multi-page) Textract jobs:
+         //    Textract publishes job completion to SNS, which fans out to an SQS queue.
+         //    JobCompletionHandler drains it and saves the text of finished jobs, so
+         //    GET /jobs/{id} reads one stored result instead of paging through Textract
+         int jobTimeoutSeconds = 300;
+         Topic jobTopic = Topic.Builder.create(this, "cicc-TextractJobTopic")
+                 .displayName("Textract job completion")
+                 .build();
+         Queue jobDeadLetterQueue = Queue.Builder.create(this, "cicc-TextractJobDeadLetterQueue")
+                 .retentionPeriod(Duration.days(14))
+                 .build();
+         Queue jobQueue = Queue.Builder.create(this, "cicc-TextractJobQueue")
+                 .visibilityTimeout(Duration.seconds(6 * jobTimeoutSeconds))
+                 .retentionPeriod(Duration.days(4))
+                 .deadLetterQueue(DeadLetterQueue.builder()
+                         .queue(jobDeadLetterQueue)
+                         .maxReceiveCount(5)
+                         .build())
+                 .build();
+         jobTopic.addSubscription(SqsSubscription.Builder.create(jobQueue)
+                 .rawMessageDelivery(true)
+                 .build());
+
+         // Role that Textract assumes to publish to the topic
+         Role textractJobRole = Role.Builder.create(this, "cicc-TextractJobRole")
+                 .assumedBy(new ServicePrincipal("textract.amazonaws.com"))
+                 .build();
+         jobTopic.grantPublish(textractJobRole);
+
+         // Bucket users upload documents to (change it to your bucket name, or cdk deploy -c mediaBucket=...)
+         IBucket mediaBucket = Bucket.fromBucketName(this, "cicc-MediaBucket",
+                 contextOrDefault("mediaBucket", "uco-cicc-media"));
+
+         // OCR results precomputed at upload time, keyed by source bucket/key
+         Bucket resultsBucket = Bucket.Builder.create(this, "cicc-OcrResults")
+                 .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
+                 .encryption(BucketEncryption.S3_MANAGED)
+                 .build();
+
+         Map<String, String> environment = new HashMap<>();
+         // Bounds for the in-container result cache (entry count and total bytes)
+         environment.put("RESULT_CACHE_MAX_ENTRIES", "256");
+         environment.put("RESULT_CACHE_MAX_BYTES", String.valueOf(64 * 1024 * 1024));
+         // Concurrent Textract calls per /process-batch request, e.g. cdk deploy -c batchParallelism=16
+         environment.put("BATCH_PARALLELISM", contextOrDefault("batchParallelism", "8"));
+         environment.put("BATCH_MAX_ITEMS", contextOrDefault("batchMaxItems", "100"));
+         environment.put("TEXTRACT_JOB_TOPIC_ARN", jobTopic.getTopicArn());
+         environment.put("TEXTRACT_JOB_ROLE_ARN", textractJobRole.getRoleArn());
+         environment.put("RESULTS_BUCKET", resultsBucket.getBucketName());
+         // Bounds of the adaptive Textract rate limit (calls per second per execution environment)
+         environment.put("TEXTRACT_INITIAL_TPS", contextOrDefault("textractInitialTps", "5"));
+         environment.put("TEXTRACT_MAX_TPS", contextOrDefault("textractMaxTps", "50"));
+         // Optional hedging of slow Textract calls to other regions, e.g.
+         // cdk deploy -c textractRegions=us-east-1,us-east-2,us-west-2 (the media bucket's region first)
+         String textractRegions = contextOrDefault("textractRegions", null);
+         if (textractRegions != null) {
+             environment.put("TEXTRACT_REGIONS", textractRegions);
+             environment.put("HEDGE_MAX_RATE", contextOrDefault("hedgeMaxRate", "0.1"));
+         }
+
+         // Compress large responses either in API Gateway (cdk deploy -c apiMinimumCompressionSize=1024)
+         // or, by default, in the handler; never both, so bodies are not compressed twice
+         String apiMinimumCompressionSize = contextOrDefault("apiMinimumCompressionSize", null);
+         environment.put("COMPRESSION_MIN_BYTES", apiMinimumCompressionSize != null
+                 ? "-1" : contextOrDefault("lambdaMinimumCompressionSize", "1024"));
+
+         // Image handling before Textract, for every function that calls it, so stored and live
+         // results come from the same input:
+         // - shrink images (cdk deploy -c preprocessLevel=grayscale; also downscale or binarize)
+         // - OCR images with a longer edge, or over 10 MB, in overlapping tiles
+         //   (cdk deploy -c tileLongEdge=6000)
+         Map<String, String> imageEnvironment = new HashMap<>();
+         String preprocessLevel = contextOrDefault("preprocessLevel", null);
+         if (preprocessLevel != null) {
+             imageEnvironment.put("PREPROCESS_LEVEL", preprocessLevel);
+             imageEnvironment.put("PREPROCESS_MAX_LONG_EDGE", contextOrDefault("preprocessMaxLongEdge", "3000"));
+         }
+         String tileLongEdge = contextOrDefault("tileLongEdge", null);
+         if (tileLongEdge != null) {
+             imageEnvironment.put("TILE_LONG_EDGE", tileLongEdge);
+             imageEnvironment.put("TILE_SIZE", contextOrDefault("tileSize", "2500"));
+             imageEnvironment.put("TILE_OVERLAP", contextOrDefault("tileOverlap", "250"));
+             // Tiled images are held in memory whole, so larger ones are refused with a 400
+             imageEnvironment.put("TILE_MAX_IMAGE_BYTES", contextOrDefault("tileMaxImageBytes", "67108864"));
+         }
+         environment.putAll(imageEnvironment);
+
+         // Pack small images of a batch or queue batch into shared Textract calls
+         // (cdk deploy -c mosaicMaxImageEdge=1200); single-image requests never wait for a mosaic
+         String mosaicMaxImageEdge = contextOrDefault("mosaicMaxImageEdge", null);
+         Map<String, String> mosaicEnvironment = new HashMap<>();
+         if (mosaicMaxImageEdge != null) {
+             mosaicEnvironment.put("MOSAIC_MAX_IMAGE_EDGE", mosaicMaxImageEdge);
+             mosaicEnvironment.put("MOSAIC_MIN_CONFIDENCE", contextOrDefault("mosaicMinConfidence", "85"));
+         }
+         environment.putAll(mosaicEnvironment);
+
+         // Documents with identical bytes share one result, whatever their key; results are
+         // indexed by content fingerprint under content/ (cdk deploy -c contentDedup=false to turn off).
+         // Only objects uploaded with a SHA-256 checksum and inline images have a fingerprint.
+         String contentDedup = contextOrDefault("contentDedup", "true");
+         environment.put("CONTENT_DEDUP", contentDedup);
+         // Optionally reuse the result of an image whose perceptual hash is within this many bits
+         // (of 256), e.g. cdk deploy -c nearDuplicateMaxDistance=4; only the API does, as stored
+         // results must come from the document itself. Needs contentDedup.
+         String nearDuplicateMaxDistance = contextOrDefault("nearDuplicateMaxDistance", null);
+         if (nearDuplicateMaxDistance != null) {
+             String nearDuplicateMaxEntries = contextOrDefault("nearDuplicateMaxEntries", "100000");
+             // Caught at synth time rather than as a failed init after deploying. 31 is the largest
+             // distance the function's index (256-bit hashes in 16-bit chunks) searches exhaustively.
+             int maxDistance = Integer.parseInt(nearDuplicateMaxDistance);
+             if (maxDistance < 0 || maxDistance > 31) {
+                 throw new IllegalArgumentException("nearDuplicateMaxDistance must be between 0 and 31");
+             }
+             if (Integer.parseInt(nearDuplicateMaxEntries) <= 0) {
+                 throw new IllegalArgumentException("nearDuplicateMaxEntries must be positive");
+             }
+             if (!Boolean.parseBoolean(contentDedup)) {
+                 throw new IllegalArgumentException("nearDuplicateMaxDistance needs contentDedup");
+             }
+             environment.put("NEAR_DUPLICATE_MAX_DISTANCE", nearDuplicateMaxDistance);
+             environment.put("NEAR_DUPLICATE_MAX_ENTRIES", nearDuplicateMaxEntries);
+         }
+
+         // The stream entry point (cdk deploy -c handlerMode=stream) parses only the proxy event
+         // fields it uses instead of binding the whole event; both serve the same API
+         String textractHandler = "stream".equals(contextOrDefault("handlerMode", "pojo"))
+                 ? "edu.uco.cicc.TextractStreamHandler::handleRequest"
+                 : "edu.uco.cicc.TextractHandler::handleRequest";
+
+         // 2. Create Lambda function for processing images with Textract
          Function textractFunction = Function.Builder.create(this, "cicc-TextractFunction")
             .runtime(Runtime.JAVA_17)
             .code(Code.fromAsset("./lambda/textract/target/textract.jar"))
-            .handler("edu.uco.cicc.TextractHandler::handleRequest")
+            .handler(textractHandler)
             .memorySize(1024)
+            // API Gateway gives up after 29 s; the handler stops work by then on its own
+            // (API_GATEWAY_TIMEOUT_MILLIS), so the extra second is never billed for nothing
             .timeout(Duration.seconds(30))
+            .environment(environment)
+            // Restore published versions from a snapshot taken after TextractHandler.beforeCheckpoint
+            .snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS)
+            .build();
+
+         // SnapStart only applies to published versions, so the API invokes an alias
+         // that follows the latest version instead of $LATEST
+         Alias textractAlias = Alias.Builder.create(this, "cicc-TextractFunctionLive")
+            .aliasName("live")
+            .version(textractFunction.getCurrentVersion())
             .build();
  
-         // 2. Grant Lambda permissions to access Textract and S3
+         // 3. Grant Lambda permissions to access Textract and S3
          textractFunction.addToRolePolicy(PolicyStatement.Builder.create()
                  .effect(Effect.ALLOW)
-                 .actions(Arrays.asList("textract:DetectDocumentText"))
+                 .actions(Arrays.asList(
+                         "textract:DetectDocumentText",
+                         "textract:StartDocumentTextDetection",
+                         "textract:GetDocumentTextDetection"))
+                 // Textract has no resource-level permissions; "*" also covers the hedge regions
                  .resources(Arrays.asList("*"))
                  .build());
+         // Starting a job hands the notification role over to Textract
+         textractJobRole.grantPassRole(textractFunction.getRole());
 
          textractFunction.addToRolePolicy(PolicyStatement.Builder.create()
                  .effect(Effect.ALLOW)
                  .actions(Arrays.asList(
-                         "s3:GetObject"))
-                 .resources(Arrays.asList("arn:aws:s3:::uco-cicc-media/*"))   // change it to your bucket name
+                         "s3:GetObject"))   // also covers HeadObject, used for cache freshness checks
+                 .resources(Arrays.asList(mediaBucket.arnForObjects("*")))
+                 .build());
+         resultsBucket.grantRead(textractFunction);
+         resultsBucket.grantPut(textractFunction, "content/*");
+
+         // Optionally record sanitized Textract responses for offline replay, e.g.
+         // cdk deploy -c recordSampleRate=0.05; copy them down with aws s3 sync. Hedged calls
+         // (textractRegions) bypass the recording client, so deploy without hedging to record
+         String recordSampleRate = contextOrDefault("recordSampleRate", null);
+         if (recordSampleRate != null) {
+             textractFunction.addEnvironment("RECORD_CORPUS", "s3://" + resultsBucket.getBucketName() + "/corpus/");
+             textractFunction.addEnvironment("RECORD_SAMPLE_RATE", recordSampleRate);
+             resultsBucket.grantPut(textractFunction, "corpus/*");
+         }
+
+         // Precompute OCR when a document is uploaded: same jar, S3 event entry point.
+         // Not behind API Gateway, so it may run longer than the 29 s API limit.
+         Function uploadFunction = Function.Builder.create(this, "cicc-UploadExtractionFunction")
+            .runtime(Runtime.JAVA_17)
+            .code(Code.fromAsset("./lambda/textract/target/textract.jar"))
+            .handler("edu.uco.cicc.UploadEventHandler::handleRequest")
+            .memorySize(1024)
+            .timeout(Duration.seconds(60))
+            .environment(Map.of("RESULTS_BUCKET", resultsBucket.getBucketName()))
+            .build();
+         uploadFunction.addToRolePolicy(PolicyStatement.Builder.create()
+                 .effect(Effect.ALLOW)
+                 .actions(Arrays.asList("textract:DetectDocumentText"))
+                 .resources(Arrays.asList("*"))
                  .build());
+         imageEnvironment.forEach(uploadFunction::addEnvironment);
+         uploadFunction.addEnvironment("CONTENT_DEDUP", contentDedup);
+         mediaBucket.grantRead(uploadFunction);
+         resultsBucket.grantReadWrite(uploadFunction);
+         mediaBucket.addEventNotification(EventType.OBJECT_CREATED, new LambdaDestination(uploadFunction));
 
-         // 3. Create API Gateway REST API
-         LambdaRestApi api = LambdaRestApi.Builder.create(this, "cicc-TextractApi")
+         // Saves the text of finished asynchronous jobs (see the job queue above); not behind
+         // API Gateway, so an 80-page document has minutes to be paged through
+         Function jobFunction = Function.Builder.create(this, "cicc-JobCompletionFunction")
+            .runtime(Runtime.JAVA_17)
+            .code(Code.fromAsset("./lambda/textract/target/textract.jar"))
+            .handler("edu.uco.cicc.JobCompletionHandler::handleRequest")
+            .memorySize(1024)
+            .timeout(Duration.seconds(jobTimeoutSeconds))
+            .environment(Map.of("RESULTS_BUCKET", resultsBucket.getBucketName()))
+            .build();
+         jobFunction.addToRolePolicy(PolicyStatement.Builder.create()
+                 .effect(Effect.ALLOW)
+                 .actions(Arrays.asList("textract:GetDocumentTextDetection"))
+                 .resources(Arrays.asList("*"))
+                 .build());
+         resultsBucket.grantPut(jobFunction, "jobs/*");
+         jobFunction.addEventSource(SqsEventSource.Builder.create(jobQueue)
+                 .batchSize(1)
+                 .reportBatchItemFailures(true)
+                 .build());
+
+         // Bulk ingestion: backfills send one message per document ({"s3_url": "..."}) to the
+         // ingest queue instead of calling the API. Lambda drains the queue in batches; reserved
+         // concurrency times QUEUE_PARALLELISM bounds concurrent Textract calls, so bursts wait in
+         // the queue instead of being throttled. Messages that keep failing move to the DLQ.
+         int ingestTimeoutSeconds = 120;
+         Queue ingestDeadLetterQueue = Queue.Builder.create(this, "cicc-IngestDeadLetterQueue")
+                 .retentionPeriod(Duration.days(14))
+                 .build();
+         Queue ingestQueue = Queue.Builder.create(this, "cicc-IngestQueue")
+                 // AWS recommends at least six times the function timeout, so retried batches
+                 // do not become visible again while an earlier attempt is still running
+                 .visibilityTimeout(Duration.seconds(6 * ingestTimeoutSeconds))
+                 .retentionPeriod(Duration.days(4))
+                 .deadLetterQueue(DeadLetterQueue.builder()
+                         .queue(ingestDeadLetterQueue)
+                         .maxReceiveCount(5)
+                         .build())
+                 .build();
+
+         // Backfills can use the Textract quota of several regions, e.g.
+         // cdk deploy -c textractPoolRegions=us-east-1:10,us-east-2:10,us-west-2:10 (the media bucket's
+         // region first, quotas in calls per second). Each execution environment gets an equal
+         // share of every quota, and enough parallelism to use it.
+         int ingestConcurrency = Integer.parseInt(contextOrDefault("ingestConcurrency", "2"));
+         Map<String, String> ingestEnvironment = new HashMap<>();
+         ingestEnvironment.put("RESULTS_BUCKET", resultsBucket.getBucketName());
+         ingestEnvironment.putAll(imageEnvironment);
+         ingestEnvironment.putAll(mosaicEnvironment);
+         ingestEnvironment.put("CONTENT_DEDUP", contentDedup);
+         String poolRegions = contextOrDefault("textractPoolRegions", null);
+         String defaultQueueParallelism = "5";
+         if (poolRegions != null) {
+             List<String> shares = new ArrayList<>();
+             double totalTps = 0;
+             for (String entry : poolRegions.split(",")) {
+                 String[] regionAndTps = entry.trim().split(":");
+                 double tps = Double.parseDouble(regionAndTps[1]);
+                 shares.add(regionAndTps[0] + ":" + tps / ingestConcurrency);
+                 totalTps += tps;
+             }
+             ingestEnvironment.put("TEXTRACT_POOL_REGIONS", String.join(",", shares));
+             // Little's law with calls of about two seconds
+             defaultQueueParallelism = String.valueOf((int) Math.ceil(2 * totalTps / ingestConcurrency));
+         }
+         ingestEnvironment.put("QUEUE_PARALLELISM", contextOrDefault("queueParallelism", defaultQueueParallelism));
+
+         Function ingestFunction = Function.Builder.create(this, "cicc-QueueIngestionFunction")
+            .runtime(Runtime.JAVA_17)
+            .code(Code.fromAsset("./lambda/textract/target/textract.jar"))
+            .handler("edu.uco.cicc.QueueIngestionHandler::handleRequest")
+            .memorySize(1024)
+            .timeout(Duration.seconds(ingestTimeoutSeconds))
+            .environment(ingestEnvironment)
+            // e.g. 2 environments x 5 parallel calls stays within the default 10 TPS
+            // DetectDocumentText quota; raise both with cdk deploy -c ingestConcurrency=...
+            .reservedConcurrentExecutions(ingestConcurrency)
+            .build();
+         ingestFunction.addToRolePolicy(PolicyStatement.Builder.create()
+                 .effect(Effect.ALLOW)
+                 .actions(Arrays.asList("textract:DetectDocumentText"))
+                 .resources(Arrays.asList("*"))
+                 .build());
+         mediaBucket.grantRead(ingestFunction);
+         resultsBucket.grantReadWrite(ingestFunction);
+         ingestFunction.addEventSource(SqsEventSource.Builder.create(ingestQueue)
+                 .batchSize(Integer.parseInt(contextOrDefault("ingestBatchSize", "10")))
+                 .maxBatchingWindow(Duration.seconds(Integer.parseInt(contextOrDefault("ingestBatchWindowSeconds", "5"))))
+                 // Only failed messages return to the queue, not the whole batch
+                 .reportBatchItemFailures(true)
+                 // Keep the poller from scaling past the reserved concurrency and throttling itself
+                 .maxConcurrency(Math.max(2, ingestConcurrency))
+                 .build());
+
+         // 4. Create API Gateway REST API
+         LambdaRestApi.Builder apiBuilder = LambdaRestApi.Builder.create(this, "cicc-TextractApi")
                  .restApiName("cicc-TextractAPI")
                  .description("API for processing images with AWS Textract")
-                 .handler(textractFunction)
+                 .handler(textractAlias)
                  .defaultCorsPreflightOptions(CorsOptions.builder()
                          .allowOrigins(Arrays.asList("*")) // For production, restrict to specific origins
-                         .allowMethods(Arrays.asList("POST", "OPTIONS"))
+                         .allowMethods(Arrays.asList("GET", "POST", "OPTIONS"))
                          .allowHeaders(Arrays.asList("Content-Type", "X-Amz-Date", "Authorization", "X-Api-Key"))
                         //  .allowCredentials(true)
                         //  .maxAge(Duration.hours(1))
@@ -94,14 +389,26 @@ public class AmplifyTextractDemoStack extends Stack {
                  .deploy(true) // Ensure a deployment is created
                  .deployOptions(StageOptions.builder()
                          .stageName("dev") // Define a stage name
-                         .build())
-                 .build();
-         // 4. Create API resources and methods
+                         .build());
+         // Binary media types only for what needs them: "*/*" would also turn the CORS preflight's
+         // OPTIONS request binary, which the mock integration cannot map, so browsers get no headers
+         // (after deploying, check with curl -i -X OPTIONS -H 'Origin: https://example.com' ...)
+         if (apiMinimumCompressionSize != null) {
+             apiBuilder.minCompressionSize(Size.bytes(Integer.parseInt(apiMinimumCompressionSize)));
+             // Images can still be posted as the raw request body
+             apiBuilder.binaryMediaTypes(Arrays.asList("image/*", "application/pdf"));
+         } else {
+             // application/json lets the handler return gzip bodies (isBase64Encoded) that API Gateway
+             // decodes to binary for clients sending Accept: application/json
+             apiBuilder.binaryMediaTypes(Arrays.asList("image/*", "application/pdf", "application/json"));
+         }
+         LambdaRestApi api = apiBuilder.build();
+         // 5. Create API resources and methods
         // Create a 'process' resource
         Resource processResource = api.getRoot().addResource("process-image");
         
         // Create Lambda integration
-        LambdaIntegration textractIntegration = LambdaIntegration.Builder.create(textractFunction)
+        LambdaIntegration textractIntegration = LambdaIntegration.Builder.create(textractAlias)
                 .proxy(true)
                 .build();
 
@@ -132,6 +439,15 @@ public class AmplifyTextractDemoStack extends Stack {
         // Add POST method to process resource
         processResource.addMethod("POST", textractIntegration, textractMethodOptions);
 
+        // Create a 'process-batch' resource: same function, several s3_urls per request
+        Resource batchResource = api.getRoot().addResource("process-batch");
+        batchResource.addMethod("POST", textractIntegration, textractMethodOptions);
+
+        // Create 'jobs' resources: POST starts an asynchronous job, GET /jobs/{id} returns its text
+        Resource jobsResource = api.getRoot().addResource("jobs");
+        jobsResource.addMethod("POST", textractIntegration, textractMethodOptions);
+        jobsResource.addResource("{id}").addMethod("GET", textractIntegration, textractMethodOptions);
+
         // try {
         //         MethodResponse optionsMethodResponse = MethodResponse.builder()
         //                 .statusCode("200")
@@ -149,7 +465,28 @@ public class AmplifyTextractDemoStack extends Stack {
         //         System.out.println("OPTIONS method already exists for the resource: " + e.getMessage());
         // }
         
-         // 4. Set up Amplify App
+         // 6. Dashboard over the per-phase metrics TextractHandler emits in Embedded Metric Format
+         Dashboard dashboard = Dashboard.Builder.create(this, "cicc-TextractDashboard")
+                 .dashboardName("cicc-Textract")
+                 .build();
+         List<IWidget> widgets = new ArrayList<>();
+         for (String phase : List.of("ParseBodyTime", "ParseUrlTime", "CacheLookupTime", "TextractTime",
+                 "BlockProcessingTime", "SerializeTime", "TotalTime", "ResponseBytes", "BlockCount")) {
+             widgets.add(GraphWidget.Builder.create()
+                     .title(phase + " (p50 / p99)")
+                     .left(routeMetrics(phase, List.of("p50", "p99")))
+                     .width(12)
+                     .build());
+         }
+         widgets.add(GraphWidget.Builder.create()
+                 .title("Result cache hits / misses")
+                 .left(routeMetrics("CacheHits", List.of("Sum")))
+                 .right(routeMetrics("CacheMisses", List.of("Sum")))
+                 .width(12)
+                 .build());
+         dashboard.addWidgets(widgets.toArray(new IWidget[0]));
+
+         // 7. Set up Amplify App
         //  software.amazon.awscdk.services.amplify.App amplifyApp = software.amazon.awscdk.services.amplify.App.Builder
         //          .create(this, "TextractProcessingApp")
         //          .sourceCodeProvider(software.amazon.awscdk.services.amplify.GitHubSourceCodeProvider.Builder.create()
@@ -172,19 +509,19 @@ public class AmplifyTextractDemoStack extends Stack {
         //                                  "paths", Arrays.asList("node_modules/**/*"))))))
         //          .build();
 
-        //  // 5. Add branch
+        //  // 8. Add branch
         //  Branch masterBranch = Branch.Builder.create(this, "MasterBranch")
         //          .app(amplifyApp)
         //          .branchName("main")
         //          .build();
 
-        //  // 6. Set environment variables for Amplify app
+        //  // 9. Set environment variables for Amplify app
         //  Map<String, String> environmentVariables = new HashMap<>();
         //  environmentVariables.put("API_ENDPOINT", api.getUrl());
 
         //  masterBranch.addEnvironment(environmentVariables);
 
-         // 7. Output the API endpoint URL and Amplify App URL
+         // 10. Output the API endpoint URL and Amplify App URL
          String apiUrl = String.format("https://%s.execute-api.%s.amazonaws.com/%s/%s",
                 api.getRestApiId(), // API Gateway ID
                 Stack.of(this).getRegion(), // AWS Region
@@ -194,6 +531,27 @@ public class AmplifyTextractDemoStack extends Stack {
                  .description("API Gateway endpoint URL")
                  .value(apiUrl)
                  .build();
+         CfnOutput.Builder.create(this, "BatchApiEndpoint")
+                 .description("API Gateway endpoint URL for batch processing")
+                 .value(String.format("https://%s.execute-api.%s.amazonaws.com/%s/%s",
+                        api.getRestApiId(), Stack.of(this).getRegion(), "dev", "process-batch"))
+                 .build();
+         CfnOutput.Builder.create(this, "FunctionAlias")
+                 .description("Lambda alias invoked by the API (SnapStart-enabled)")
+                 .value(textractAlias.getFunctionArn())
+                 .build();
+         CfnOutput.Builder.create(this, "DashboardName")
+                 .description("CloudWatch dashboard with per-phase latency")
+                 .value(dashboard.getDashboardName())
+                 .build();
+         CfnOutput.Builder.create(this, "ResultsBucket")
+                 .description("Bucket holding OCR results precomputed at upload time")
+                 .value(resultsBucket.getBucketName())
+                 .build();
+         CfnOutput.Builder.create(this, "IngestQueueUrl")
+                 .description("SQS queue for bulk ingestion, one {\"s3_url\": ...} message per document")
+                 .value(ingestQueue.getQueueUrl())
+                 .build();
         //  CfnOutput.Builder.create(this, "ApiEndpoint")
         //          .description("API Gateway endpoint URL")
         //          .value(api.getUrl())
@@ -204,4 +562,28 @@ public class AmplifyTextractDemoStack extends Stack {
         //          .value(amplifyApp.getDefaultDomain())
         //          .build();
     }
+
+    // One series per API route and statistic for a metric emitted by TextractHandler
+    private static List<IMetric> routeMetrics(String metricName, List<String> statistics) {
+        List<IMetric> metrics = new ArrayList<>();
+        for (String route : List.of("/process-image", "/process-batch")) {
+            for (String statistic : statistics) {
+                metrics.add(Metric.Builder.create()
+                        .namespace("cicc/Textract")
+                        .metricName(metricName)
+                        .dimensionsMap(Map.of("Route", route))
+                        .statistic(statistic)
+                        .label(route + " " + statistic)
+                        .period(Duration.minutes(1))
+                        .build());
+            }
+        }
+        return metrics;
+    }
+
+    // Reads a deployment option passed with `cdk deploy -c key=value`, falling back to a default
+    private String contextOrDefault(String key, String defaultValue) {
+        Object value = this.getNode().tryGetContext(key);
+        return value != null ? value.toString() : defaultValue;
+    }
 }